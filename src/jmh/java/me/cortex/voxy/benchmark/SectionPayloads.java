@@ -0,0 +1,227 @@
+package me.cortex.voxy.benchmark;
+
+import me.cortex.voxy.common.world.ActiveSectionTracker;
+import me.cortex.voxy.common.world.SaveLoadSystem;
+import me.cortex.voxy.common.world.WorldEngine;
+import me.cortex.voxy.common.world.WorldSection;
+import me.cortex.voxy.common.world.other.Mapper;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+//Generates synthetic serialized sections that roughly match what the world engine stores
+public class SectionPayloads {
+    public enum Kind {
+        //Sky sections, a single lut entry
+        AIR,
+        //Heightmap terrain with layered ground, vegetation and sky light above the surface
+        SURFACE,
+        //Solid stone with carved out caves, ores and block light from scattered light sources
+        CAVES
+    }
+
+    private static final int AIR_BLOCK = 0;
+    private static final int STONE = 1;
+    private static final int DIRT = 2;
+    private static final int GRASS = 3;
+    private static final int WATER = 4;
+    private static final int TALL_GRASS = 5;
+    private static final int DEEPSLATE = 6;
+    private static final int GRAVEL = 7;
+    private static final int TORCH = 8;
+    private static final int FIRST_ORE = 16;
+    private static final int ORE_TYPES = 8;
+
+    public enum Order {
+        //Keys in the order the world engine generally touches them, neighbouring sections one after another
+        SEQUENTIAL,
+        //Keys shuffled so that every access lands somewhere unrelated to the previous one
+        RANDOM
+    }
+
+    //Section keys of a cube of sections at lod 0
+    public static long[] generateKeys(int count, Order order, long seed) {
+        int side = (int) Math.ceil(Math.cbrt(count));
+        long[] keys = new long[count];
+        int i = 0;
+        outer:
+        for (int y = 0; y < side; y++) {
+            for (int z = 0; z < side; z++) {
+                for (int x = 0; x < side; x++) {
+                    if (i == count) {
+                        break outer;
+                    }
+                    keys[i++] = WorldEngine.getWorldSectionId(0, x, y, z);
+                }
+            }
+        }
+        if (order == Order.RANDOM) {
+            var random = new Random(seed);
+            for (int j = count - 1; j > 0; j--) {
+                int k = random.nextInt(j + 1);
+                long tmp = keys[j];
+                keys[j] = keys[k];
+                keys[k] = tmp;
+            }
+        }
+        return keys;
+    }
+
+    //Serializes a section per key, the returned buffers are allocated with memAlloc and must be freed with free()
+    public static ByteBuffer[] generate(Kind kind, long[] keys, long seed) {
+        var sections = generateSections(kind, keys, seed);
+        ByteBuffer[] payloads = new ByteBuffer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            payloads[i] = SaveLoadSystem.serialize(sections[i]);
+            sections[i].release();
+        }
+        return payloads;
+    }
+
+    //Generates an acquired section per key, the sections must be released
+    public static WorldSection[] generateSections(Kind kind, long[] keys, long seed) {
+        var sections = new WorldSection[keys.length];
+        var random = new Random(seed);
+        var tracker = new ActiveSectionTracker(1, section -> {
+            fill(kind, section, random);
+            return 0;
+        });
+        for (int i = 0; i < keys.length; i++) {
+            long key = keys[i];
+            sections[i] = tracker.acquire(WorldEngine.getLevel(key), WorldEngine.getX(key), WorldEngine.getY(key), WorldEngine.getZ(key), false);
+        }
+        return sections;
+    }
+
+    public static void free(ByteBuffer[] payloads) {
+        for (var payload : payloads) {
+            if (payload != null) {
+                MemoryUtil.memFree(payload);
+            }
+        }
+    }
+
+    private static void fill(Kind kind, WorldSection section, Random random) {
+        switch (kind) {
+            case AIR -> fillAir(section);
+            case SURFACE -> fillSurface(section, random);
+            case CAVES -> fillCaves(section, random);
+        }
+    }
+
+    private static void fillAir(WorldSection section) {
+        long sky = Mapper.composeMappingId((byte) 0xF0, AIR_BLOCK, 0);
+        for (int y = 0; y < 32; y++) {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    section.set(x, y, z, sky);
+                }
+            }
+        }
+    }
+
+    private static void fillSurface(WorldSection section, Random random) {
+        int biome = random.nextInt(4);
+        double phaseX = random.nextDouble() * Math.PI * 2;
+        double phaseZ = random.nextDouble() * Math.PI * 2;
+        int base = 8 + random.nextInt(16);
+        int waterLevel = 12;
+        for (int z = 0; z < 32; z++) {
+            for (int x = 0; x < 32; x++) {
+                int height = base + (int) (Math.sin(x * 0.21 + phaseX) * 4 + Math.cos(z * 0.17 + phaseZ) * 4 + Math.sin((x + z) * 0.07) * 3);
+                boolean plant = random.nextInt(8) == 0;
+                for (int y = 0; y < 32; y++) {
+                    int depth = height - y;
+                    long id;
+                    if (depth > 4) {
+                        id = Mapper.composeMappingId((byte) 0, STONE, biome);
+                    } else if (depth > 0) {
+                        id = Mapper.composeMappingId((byte) 0, DIRT, biome);
+                    } else if (depth == 0) {
+                        id = Mapper.composeMappingId((byte) 0, height < waterLevel ? GRAVEL : GRASS, biome);
+                    } else if (y <= waterLevel) {
+                        //Light falls off with depth through water
+                        int light = Math.max(0, 15 - (waterLevel - y) * 2);
+                        id = Mapper.composeMappingId((byte) (light << 4), WATER, biome);
+                    } else if (depth == -1 && plant) {
+                        id = Mapper.composeMappingId((byte) 0xF0, TALL_GRASS, biome);
+                    } else {
+                        id = Mapper.composeMappingId((byte) 0xF0, AIR_BLOCK, 0);
+                    }
+                    section.set(x, y, z, id);
+                }
+            }
+        }
+    }
+
+    private static void fillCaves(WorldSection section, Random random) {
+        int biome = 4 + random.nextInt(2);
+        long stone = Mapper.composeMappingId((byte) 0, STONE, biome);
+        long deepslate = Mapper.composeMappingId((byte) 0, DEEPSLATE, biome);
+        int split = random.nextInt(32);
+        for (int y = 0; y < 32; y++) {
+            for (int z = 0; z < 32; z++) {
+                for (int x = 0; x < 32; x++) {
+                    long id = y < split ? deepslate : stone;
+                    if (random.nextInt(64) == 0) {
+                        id = Mapper.composeMappingId((byte) 0, FIRST_ORE + random.nextInt(ORE_TYPES), biome);
+                    }
+                    section.set(x, y, z, id);
+                }
+            }
+        }
+
+        //Carve caves as chains of spheres, with the light level fading away from the occasional torch
+        int tunnels = 2 + random.nextInt(4);
+        for (int t = 0; t < tunnels; t++) {
+            double cx = random.nextDouble() * 32;
+            double cy = random.nextDouble() * 32;
+            double cz = random.nextDouble() * 32;
+            double dx = random.nextGaussian();
+            double dy = random.nextGaussian() * 0.3;
+            double dz = random.nextGaussian();
+            int torchX = (int) cx, torchY = (int) cy, torchZ = (int) cz;
+            boolean lit = random.nextBoolean();
+            for (int step = 0; step < 24; step++) {
+                double radius = 2 + random.nextDouble() * 3;
+                carveSphere(section, cx, cy, cz, radius, lit, torchX, torchY, torchZ);
+                cx += dx * 2;
+                cy += dy * 2;
+                cz += dz * 2;
+                dx += random.nextGaussian() * 0.3;
+                dy += random.nextGaussian() * 0.1;
+                dz += random.nextGaussian() * 0.3;
+            }
+            if (lit && inBounds(torchX, torchY, torchZ)) {
+                section.set(torchX, torchY, torchZ, Mapper.composeMappingId((byte) 14, TORCH, biome));
+            }
+        }
+    }
+
+    private static void carveSphere(WorldSection section, double cx, double cy, double cz, double radius, boolean lit, int lx, int ly, int lz) {
+        int r = (int) Math.ceil(radius);
+        for (int y = (int) cy - r; y <= (int) cy + r; y++) {
+            for (int z = (int) cz - r; z <= (int) cz + r; z++) {
+                for (int x = (int) cx - r; x <= (int) cx + r; x++) {
+                    if (!inBounds(x, y, z)) {
+                        continue;
+                    }
+                    double ox = x - cx, oy = y - cy, oz = z - cz;
+                    if (ox * ox + oy * oy + oz * oz > radius * radius) {
+                        continue;
+                    }
+                    int light = 0;
+                    if (lit) {
+                        light = Math.max(0, 14 - (Math.abs(x - lx) + Math.abs(y - ly) + Math.abs(z - lz)));
+                    }
+                    section.set(x, y, z, Mapper.composeMappingId((byte) light, AIR_BLOCK, 0));
+                }
+            }
+        }
+    }
+
+    private static boolean inBounds(int x, int y, int z) {
+        return x >= 0 && x < 32 && y >= 0 && y < 32 && z >= 0 && z < 32;
+    }
+}
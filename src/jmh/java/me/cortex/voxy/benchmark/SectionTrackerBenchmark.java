@@ -0,0 +1,85 @@
+package me.cortex.voxy.benchmark;
+
+import me.cortex.voxy.common.world.ActiveSectionTracker;
+import me.cortex.voxy.common.world.WorldSection;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+//Acquire/release throughput of the section tracker, single threaded and with the thread counts the ingest, saving and
+// render workers reach together
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SectionTrackerBenchmark {
+    public enum Workload {
+        //A small set of sections held loaded, every acquire is a lookup and reference count change on a hot entry
+        HOT,
+        //The same sections but nothing holds them, so they are loaded and unloaded constantly
+        CHURN,
+        //A large key set with nothing held, mostly misses that insert and remove entries
+        SPREAD
+    }
+
+    @State(Scope.Benchmark)
+    public static class TrackerState {
+        @Param({"HOT", "CHURN", "SPREAD"})
+        public Workload workload;
+
+        @Param({"4"})
+        public int segmentBits;
+
+        public ActiveSectionTracker tracker;
+        public int keyRange;
+        private final List<WorldSection> pinned = new ArrayList<>();
+
+        @Setup(Level.Trial)
+        public void setup() {
+            //Loading is free, so the benchmark measures only the tracker
+            this.tracker = new ActiveSectionTracker(this.segmentBits, section -> 0);
+            this.keyRange = this.workload == Workload.SPREAD ? 1<<16 : 64;
+            if (this.workload == Workload.HOT) {
+                for (int i = 0; i < this.keyRange; i++) {
+                    this.pinned.add(this.tracker.acquire(0, i, 0, 0, false));
+                }
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.pinned.forEach(WorldSection::release);
+            this.pinned.clear();
+        }
+    }
+
+    private static void acquireRelease(TrackerState state, Blackhole blackhole) {
+        int x = ThreadLocalRandom.current().nextInt(state.keyRange);
+        var section = state.tracker.acquire(0, x, 0, 0, false);
+        blackhole.consume(section.key);
+        section.release();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void acquire(TrackerState state, Blackhole blackhole) {
+        acquireRelease(state, blackhole);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void acquireContended16(TrackerState state, Blackhole blackhole) {
+        acquireRelease(state, blackhole);
+    }
+
+    @Benchmark
+    @Threads(32)
+    public void acquireContended32(TrackerState state, Blackhole blackhole) {
+        acquireRelease(state, blackhole);
+    }
+}
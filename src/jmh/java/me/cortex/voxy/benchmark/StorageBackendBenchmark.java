@@ -0,0 +1,187 @@
+package me.cortex.voxy.benchmark;
+
+import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.compressors.LZ4Compressor;
+import me.cortex.voxy.common.storage.compressors.ZSTDCompressor;
+import me.cortex.voxy.common.storage.inmemory.MemoryStorageBackend;
+import me.cortex.voxy.common.storage.lmdb.LMDBStorageBackend;
+import me.cortex.voxy.common.storage.other.CompressionStorageAdaptor;
+import me.cortex.voxy.common.storage.other.FragmentedStorageBackendAdaptor;
+import me.cortex.voxy.common.storage.rocksdb.RocksDBStorageBackend;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+//Throughput of the section get/put/delete paths of every backend, each benchmark has a single threaded and a
+// contended variant
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageBackendBenchmark {
+    private static final int KEY_COUNT = 4096;
+    private static final int CONTENDED_THREADS = 4;
+
+    @State(Scope.Benchmark)
+    public static class StorageState {
+        @Param({"memory", "lmdb", "rocksdb", "zstd1", "zstd3", "zstd7", "zstd19", "lz4", "lz4hc9", "fragmented"})
+        public String backend;
+
+        @Param({"AIR", "SURFACE", "CAVES"})
+        public SectionPayloads.Kind payload;
+
+        @Param({"SEQUENTIAL", "RANDOM"})
+        public SectionPayloads.Order order;
+
+        public StorageBackend storage;
+        public long[] keys;
+        public ByteBuffer[] payloads;
+        private final AtomicInteger deleteCursor = new AtomicInteger();
+        private Path directory;
+
+        @Setup(Level.Trial)
+        public void setup() throws IOException {
+            this.directory = Files.createTempDirectory("voxy-storage-bench");
+            this.storage = createBackend(this.backend, this.directory);
+            this.keys = SectionPayloads.generateKeys(KEY_COUNT, this.order, 1234);
+            this.payloads = SectionPayloads.generate(this.payload, this.keys, 5678);
+            this.fill();
+        }
+
+        //Deletes leave holes in the key set, so every measurement iteration starts from a fully populated backend
+        @Setup(Level.Iteration)
+        public void fill() {
+            this.storage.setSectionDataBatch(this.keys, this.payloads);
+            this.storage.flush();
+            this.deleteCursor.set(0);
+        }
+
+        //Shared between threads so that every delete in an iteration hits a distinct present key
+        public long nextDeleteKey() {
+            return this.keys[this.deleteCursor.getAndIncrement() % KEY_COUNT];
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws IOException {
+            this.storage.close();
+            SectionPayloads.free(this.payloads);
+            try (Stream<Path> files = Files.walk(this.directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    //Per thread position in the key order, threads start at different offsets so they do not walk in lockstep
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            this.index = ThreadLocalRandom.current().nextInt(KEY_COUNT);
+        }
+
+        public int next() {
+            int current = this.index;
+            this.index = (current + 1) % KEY_COUNT;
+            return current;
+        }
+    }
+
+    private static StorageBackend createBackend(String name, Path directory) {
+        if (name.startsWith("zstd")) {
+            //Compression is measured on top of the memory backend so the numbers are dominated by the codec
+            return new CompressionStorageAdaptor(new ZSTDCompressor(Integer.parseInt(name.substring(4))), new MemoryStorageBackend());
+        }
+        if (name.startsWith("lz4")) {
+            int level = name.startsWith("lz4hc") ? Integer.parseInt(name.substring(5)) : 0;
+            return new CompressionStorageAdaptor(new LZ4Compressor(level), new MemoryStorageBackend());
+        }
+        return switch (name) {
+            case "memory" -> new MemoryStorageBackend();
+            case "lmdb" -> new LMDBStorageBackend(directory.resolve("storage.db").toString());
+            case "rocksdb" -> new RocksDBStorageBackend(directory.resolve("rocksdb").toString());
+            case "fragmented" -> {
+                var fragments = new StorageBackend[4];
+                for (int i = 0; i < fragments.length; i++) {
+                    fragments[i] = new LMDBStorageBackend(directory.resolve("fragment_" + i + ".db").toString());
+                }
+                yield new FragmentedStorageBackendAdaptor(fragments);
+            }
+            default -> throw new IllegalArgumentException("Unknown backend " + name);
+        };
+    }
+
+    private static void doGet(StorageState state, Cursor cursor, Blackhole blackhole) {
+        var data = state.storage.getSectionData(state.keys[cursor.next()]);
+        if (data != null) {
+            blackhole.consume(data.remaining());
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    private static void doPut(StorageState state, Cursor cursor) {
+        int i = cursor.next();
+        state.storage.setSectionData(state.keys[i], state.payloads[i]);
+    }
+
+    private static void doDelete(StorageState state) {
+        state.storage.deleteSectionData(state.nextDeleteKey());
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void get(StorageState state, Cursor cursor, Blackhole blackhole) {
+        doGet(state, cursor, blackhole);
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public void getContended(StorageState state, Cursor cursor, Blackhole blackhole) {
+        doGet(state, cursor, blackhole);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void put(StorageState state, Cursor cursor) {
+        doPut(state, cursor);
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    public void putContended(StorageState state, Cursor cursor) {
+        doPut(state, cursor);
+    }
+
+    //Deletes are measured as the time to remove the whole key set, split evenly across the threads
+    @Benchmark
+    @Threads(1)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = KEY_COUNT)
+    @Measurement(iterations = 5, batchSize = KEY_COUNT)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void delete(StorageState state) {
+        doDelete(state);
+    }
+
+    @Benchmark
+    @Threads(CONTENDED_THREADS)
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 3, batchSize = KEY_COUNT/CONTENDED_THREADS)
+    @Measurement(iterations = 5, batchSize = KEY_COUNT/CONTENDED_THREADS)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void deleteContended(StorageState state) {
+        doDelete(state);
+    }
+}
@@ -0,0 +1,91 @@
+package me.cortex.voxy.benchmark;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.cortex.voxy.common.world.ActiveSectionTracker;
+import me.cortex.voxy.common.world.SaveLoadSystem;
+import me.cortex.voxy.common.world.WorldEngine;
+import me.cortex.voxy.common.world.WorldSection;
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+//Throughput of expanding the in memory section representation into a raw id array (what meshing and serialization
+// read) and of loading a section from its serialized form
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorldSectionBenchmark {
+    private static final int SECTION_COUNT = 64;
+
+    @State(Scope.Benchmark)
+    public static class SectionState {
+        @Param({"AIR", "SURFACE", "CAVES"})
+        public SectionPayloads.Kind payload;
+
+        public WorldSection[] sections;
+        public ByteBuffer[] payloads;
+        public ActiveSectionTracker loadTracker;
+        public long[] keys;
+
+        @Setup(Level.Trial)
+        public void setup() {
+            this.keys = SectionPayloads.generateKeys(SECTION_COUNT, SectionPayloads.Order.SEQUENTIAL, 1234);
+            this.sections = SectionPayloads.generateSections(this.payload, this.keys, 5678);
+            this.payloads = SectionPayloads.generate(this.payload, this.keys, 5678);
+            //Sections are released straight after loading so every acquire deserializes again
+            var payloadsByKey = new Long2ObjectOpenHashMap<ByteBuffer>();
+            for (int i = 0; i < SECTION_COUNT; i++) {
+                payloadsByKey.put(this.keys[i], this.payloads[i]);
+            }
+            this.loadTracker = new ActiveSectionTracker(1, section -> {
+                var payload = payloadsByKey.get(section.key);
+                return SaveLoadSystem.deserialize(section, payload.duplicate().order(payload.order()), false) ? 0 : -1;
+            });
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            for (var section : this.sections) {
+                section.release();
+            }
+            SectionPayloads.free(this.payloads);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Scratch {
+        public final long[] data = new long[32*32*32];
+        public int index;
+
+        public int next() {
+            this.index = (this.index + 1) % SECTION_COUNT;
+            return this.index;
+        }
+    }
+
+    @Benchmark
+    public void decodeToArray(SectionState state, Scratch scratch, Blackhole blackhole) {
+        state.sections[scratch.next()].copyDataTo(scratch.data);
+        blackhole.consume(scratch.data);
+    }
+
+    @Benchmark
+    public void deserialize(SectionState state, Scratch scratch, Blackhole blackhole) {
+        long key = state.keys[scratch.next()];
+        var section = state.loadTracker.acquire(WorldEngine.getLevel(key), WorldEngine.getX(key), WorldEngine.getY(key), WorldEngine.getZ(key), false);
+        blackhole.consume(section.getDataSize());
+        section.release();
+    }
+
+    @Benchmark
+    public void serialize(SectionState state, Scratch scratch, Blackhole blackhole) {
+        var data = SaveLoadSystem.serialize(state.sections[scratch.next()]);
+        blackhole.consume(data.remaining());
+        MemoryUtil.memFree(data);
+    }
+}
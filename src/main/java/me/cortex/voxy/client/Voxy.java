@@ -1,7 +1,9 @@
 package me.cortex.voxy.client;
 
+import me.cortex.voxy.client.core.IGetVoxelCore;
 import me.cortex.voxy.client.core.VoxelCore;
 import me.cortex.voxy.client.saver.ContextSelectionSystem;
+import me.cortex.voxy.client.saver.StorageMigrationCommand;
 import me.cortex.voxy.client.terrain.WorldImportCommand;
 import me.cortex.voxy.common.config.Serialization;
 import me.cortex.voxy.common.storage.compressors.ZSTDCompressor;
@@ -10,6 +12,7 @@ import net.fabricmc.api.ClientModInitializer;
         import net.fabricmc.fabric.api.client.command.v2.ClientCommandRegistrationCallback;
 import net.fabricmc.loader.api.FabricLoader;
 import net.fabricmc.loader.api.ModContainer;
+import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.world.ClientWorld;
 
 public class Voxy implements ClientModInitializer {
@@ -26,14 +29,23 @@ public class Voxy implements ClientModInitializer {
 
         ClientCommandRegistrationCallback.EVENT.register((dispatcher, registryAccess) -> {
             dispatcher.register(WorldImportCommand.register());
+            dispatcher.register(StorageMigrationCommand.register());
         });
     }
 
 
     private static final ContextSelectionSystem selector = new ContextSelectionSystem();
 
+    public static ContextSelectionSystem.Selection getSelection(ClientWorld world) {
+        return selector.getBestSelectionOrCreate(world);
+    }
+
+    //Returns null while the storage of the world is being migrated, the core is recreated once the migration finishes
     public static VoxelCore createVoxelCore(ClientWorld world) {
         var selection = selector.getBestSelectionOrCreate(world);
+        if (selection.startPendingMigration(() -> MinecraftClient.getInstance().execute(() -> ((IGetVoxelCore) MinecraftClient.getInstance().worldRenderer).reloadVoxelCore()))) {
+            return null;
+        }
         return new VoxelCore(selection);
     }
 }
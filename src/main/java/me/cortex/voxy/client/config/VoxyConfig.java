@@ -25,12 +25,18 @@ public class VoxyConfig {
     public boolean enabled = true;
     public boolean ingestEnabled = true;
     public int qualityScale = 12;
+    public int lodLevels = 5;
     public int maxSections = 200_000;
     public int renderDistance = 128;
     public int geometryBufferSize = (1<<30)/8;
     public int ingestThreads = 2;
     public int savingThreads = 4;
     public int renderThreads = 5;
+    public int ioThreads = 2;
+    public int saveCoalesceWindowMs = 1000;
+    public int maxSaveDelayMs = 10000;
+    public int sectionCacheSizeMb = 256;
+    public int sectionPoolSizeMb = 512;
     public boolean useMeshShaderIfPossible = true;
     public String defaultSaveConfig;
 
@@ -82,6 +82,12 @@ public class VoxyConfigScreenFactory implements ModMenuApi {
                 .setDefaultValue(DEFAULT.qualityScale)
                 .build());
 
+        category.addEntry(entryBuilder.startIntSlider(Text.translatable("voxy.config.general.lodLevels"), config.lodLevels, 1, 16)
+                .setTooltip(Text.translatable("voxy.config.general.lodLevels.tooltip"))
+                .setSaveConsumer(val -> config.lodLevels = val)
+                .setDefaultValue(DEFAULT.lodLevels)
+                .build());
+
         category.addEntry(entryBuilder.startIntSlider(Text.translatable("voxy.config.general.geometryBuffer"), config.geometryBufferSize, (1<<27)/8, ((1<<31)-1)/8)
                 .setTooltip(Text.translatable("voxy.config.general.geometryBuffer.tooltip"))
                 .setSaveConsumer(val -> config.geometryBufferSize = val)
@@ -123,7 +129,7 @@ public class VoxyConfigScreenFactory implements ModMenuApi {
                 .setDefaultValue(DEFAULT.ingestThreads)
                 .build());
 
-        category.addEntry(entryBuilder.startIntSlider(Text.translatable("voxy.config.threads.saving"), config.savingThreads, 1, Runtime.getRuntime().availableProcessors())
+        category.addEntry(entryBuilder.startIntSlider(Text.translatable("voxy.config.threads.saving"), config.savingThreads, 0, Runtime.getRuntime().availableProcessors())
                 .setTooltip(Text.translatable("voxy.config.threads.saving.tooltip"))
                 .setSaveConsumer(val -> config.savingThreads = val)
                 .setDefaultValue(DEFAULT.savingThreads)
@@ -134,12 +140,42 @@ public class VoxyConfigScreenFactory implements ModMenuApi {
                 .setSaveConsumer(val -> config.renderThreads = val)
                 .setDefaultValue(DEFAULT.renderThreads)
                 .build());
+
+        category.addEntry(entryBuilder.startIntSlider(Text.translatable("voxy.config.threads.io"), config.ioThreads, 1, Runtime.getRuntime().availableProcessors())
+                .setTooltip(Text.translatable("voxy.config.threads.io.tooltip"))
+                .setSaveConsumer(val -> config.ioThreads = val)
+                .setDefaultValue(DEFAULT.ioThreads)
+                .build());
     }
 
     private static void addStorageCategory(ConfigBuilder builder, VoxyConfig config) {
         ConfigCategory category = builder.getOrCreateCategory(Text.translatable("voxy.config.storage"));
         ConfigEntryBuilder entryBuilder = builder.entryBuilder();
 
+        category.addEntry(entryBuilder.startIntField(Text.translatable("voxy.config.storage.coalesce"), config.saveCoalesceWindowMs)
+                .setTooltip(Text.translatable("voxy.config.storage.coalesce.tooltip"))
+                .setSaveConsumer(val -> config.saveCoalesceWindowMs = Math.max(0, val))
+                .setDefaultValue(DEFAULT.saveCoalesceWindowMs)
+                .build());
+
+        category.addEntry(entryBuilder.startIntField(Text.translatable("voxy.config.storage.maxSaveDelay"), config.maxSaveDelayMs)
+                .setTooltip(Text.translatable("voxy.config.storage.maxSaveDelay.tooltip"))
+                .setSaveConsumer(val -> config.maxSaveDelayMs = Math.max(0, val))
+                .setDefaultValue(DEFAULT.maxSaveDelayMs)
+                .build());
+
+        category.addEntry(entryBuilder.startIntField(Text.translatable("voxy.config.storage.sectionCache"), config.sectionCacheSizeMb)
+                .setTooltip(Text.translatable("voxy.config.storage.sectionCache.tooltip"))
+                .setSaveConsumer(val -> config.sectionCacheSizeMb = Math.max(0, val))
+                .setDefaultValue(DEFAULT.sectionCacheSizeMb)
+                .build());
+
+        category.addEntry(entryBuilder.startIntField(Text.translatable("voxy.config.storage.sectionPool"), config.sectionPoolSizeMb)
+                .setTooltip(Text.translatable("voxy.config.storage.sectionPool.tooltip"))
+                .setSaveConsumer(val -> config.sectionPoolSizeMb = Math.max(0, val))
+                .setDefaultValue(DEFAULT.sectionPoolSizeMb)
+                .build());
+
         ////Temporary until i figure out how to do more complex multi layer configuration for storage
         //category.addEntry(entryBuilder.startStrField(Text.translatable("voxy.config.storage.path"), config.storagePath)
         //        .setTooltip(Text.translatable("voxy.config.storage.path.tooltip"))
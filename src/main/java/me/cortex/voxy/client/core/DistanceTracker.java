@@ -101,7 +101,7 @@ public class DistanceTracker {
             }
         }
         if (!wasRdClamped) {
-            this.mostOuterNonClampedRing = new TransitionRing2D(5+this.loDRings.length, Math.max(renderDistance, 2048)>>this.loDRings.length, (x,z)->
+            this.mostOuterNonClampedRing = new TransitionRing2D(5+this.loDRings.length, Math.max(1, Math.max(renderDistance, 2048)>>this.loDRings.length), (x,z)->
                     add(this.loDRings.length, x, z), (x,z)->{
                 if (renderDistance > 0) {
                     remove(this.loDRings.length,x,z);
@@ -8,7 +8,10 @@ import me.cortex.voxy.client.core.rendering.building.RenderGenerationService;
 import me.cortex.voxy.client.core.rendering.post.PostProcessing;
 import me.cortex.voxy.client.core.util.IrisUtil;
 import me.cortex.voxy.client.saver.ContextSelectionSystem;
+import me.cortex.voxy.common.storage.other.FragmentedStorageBackendAdaptor;
+import me.cortex.voxy.common.storage.other.ReadCacheStorageAdaptor;
 import me.cortex.voxy.common.world.WorldEngine;
+import me.cortex.voxy.common.world.WorldSection;
 import me.cortex.voxy.client.importers.WorldImporter;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.gui.hud.ClientBossBar;
@@ -87,7 +90,10 @@ public class VoxelCore {
             maxY = cfg.maxYOverride;
         }
 
-        this.distanceTracker = new DistanceTracker(this.renderTracker, new int[]{q,q,q,q},
+        //A ring per level transition, the outermost level is held until the render distance
+        int[] lodRingScales = new int[this.world.getMaxMipLevels()-1];
+        Arrays.fill(lodRingScales, q);
+        this.distanceTracker = new DistanceTracker(this.renderTracker, lodRingScales,
                 (VoxyConfig.CONFIG.renderDistance<0?VoxyConfig.CONFIG.renderDistance:((VoxyConfig.CONFIG.renderDistance+1)/2)),
                 minY, maxY);
         System.out.println("Distance tracker initialized");
@@ -217,8 +223,24 @@ public class VoxelCore {
         debug.add("Render service tasks: " + this.renderGen.getTaskCount());
          */
         debug.add("I/S/R tasks: " + this.world.ingestService.getTaskCount() + "/"+this.world.savingService.getTaskCount()+"/"+this.renderGen.getTaskCount());
-        debug.add("Loaded cache sizes: " + Arrays.toString(this.world.getLoadedSectionCacheSizes()));
+        if (this.world.mipService != null) {
+            debug.add("Mip tasks: " + this.world.mipService.getTaskCount());
+        }
+        debug.add("Loaded sections: " + this.world.getLoadedSectionCount());
+        var sectionCache = this.world.getSectionDataCache();
+        if (sectionCache != null) {
+            debug.add(sectionCache.getDebugString());
+        }
+        debug.add("Section pool " + WorldSection.getRawDataPool().getDebugString());
         debug.add("Mesh cache count: " + this.renderGen.getMeshCacheCount());
+        for (var backend : this.world.storage.collectAllBackends()) {
+            if (backend instanceof ReadCacheStorageAdaptor readCache) {
+                debug.add(readCache.getDebugString());
+            }
+            if (backend instanceof FragmentedStorageBackendAdaptor fragmented) {
+                debug.add("Storage fragment queues: " + Arrays.toString(fragmented.getQueueDepths()));
+            }
+        }
         this.renderer.addDebugData(debug);
     }
 
@@ -67,6 +67,11 @@ public class RenderDataFactory {
 
     //section is already acquired and gets released by the parent
     public BuiltSection generateMesh(WorldSection section) {
+        long uniformId = section.getUniformId();
+        if (uniformId != Mapper.UNKNOWN_MAPPING && Mapper.isAir(uniformId)) {
+            //All air sections have no geometry of their own
+            return new BuiltSection(section.key);
+        }
         section.copyDataTo(this.sectionCache);
         this.translucentQuadCollector.clear();
         this.doubleSidedQuadCollector.clear();
@@ -9,21 +9,25 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.text.Text;
 
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Semaphore;
 import java.util.function.Consumer;
-import java.util.function.Supplier;
 import java.util.function.ToIntFunction;
 
 //TODO: Add a render cache
 public class RenderGenerationService {
 
     public interface TaskChecker {boolean check(int lvl, int x, int y, int z);}
-    private record BuildTask(Supplier<WorldSection> sectionSupplier) {}
+    private record BuildTask(int lvl, int x, int y, int z, TaskChecker checker) {}
+    //A section that was loaded for the task, the task is kept so it can be requeued if meshing has to be retried
+    private record LoadedTask(BuildTask task, WorldSection section) {}
 
     private volatile boolean running = true;
     private final Thread[] workers;
 
     private final Long2ObjectLinkedOpenHashMap<BuildTask> taskQueue = new Long2ObjectLinkedOpenHashMap<>();
+    //Sections that were loaded asynchronously and are ready to be meshed, also counted by the task counter
+    private final ConcurrentLinkedDeque<LoadedTask> loadedQueue = new ConcurrentLinkedDeque<>();
 
     private final Semaphore taskCounter = new Semaphore(0);
     private final WorldEngine world;
@@ -55,12 +59,19 @@ public class RenderGenerationService {
             if (!this.running) break;
             try {
                 BuildTask task;
-                synchronized (this.taskQueue) {
-                    task = this.taskQueue.removeFirst();
-                }
-                var section = task.sectionSupplier.get();
-                if (section == null) {
-                    continue;
+                WorldSection section;
+                var loaded = this.loadedQueue.poll();
+                if (loaded != null) {
+                    task = loaded.task;
+                    section = loaded.section;
+                } else {
+                    synchronized (this.taskQueue) {
+                        task = this.taskQueue.removeFirst();
+                    }
+                    section = this.acquireTaskSection(task);
+                    if (section == null) {
+                        continue;
+                    }
                 }
                 section.assertNotFree();
                 BuiltSection mesh = null;
@@ -93,6 +104,40 @@ public class RenderGenerationService {
         }
     }
 
+    //Returns the section if its already loaded, otherwise the load is done on the world io executor and the section is
+    // queued for meshing once its loaded so that the worker doesnt block on storage
+    private WorldSection acquireTaskSection(BuildTask task) {
+        if (!task.checker.check(task.lvl, task.x, task.y, task.z)) {
+            return null;
+        }
+        var future = this.world.acquireIfExistsAsync(task.lvl, task.x, task.y, task.z);
+        if (future.isDone()) {
+            return future.join();
+        }
+        future.whenComplete((section, error) -> {
+            if (error != null) {
+                System.err.println(error);
+                return;
+            }
+            if (section == null) {
+                return;
+            }
+            if (!this.running) {
+                section.release();
+                return;
+            }
+            var loaded = new LoadedTask(task, section);
+            this.loadedQueue.add(loaded);
+            //Shutdown may have already drained the queue, whichever of the two removes the task releases the section
+            if (!this.running && this.loadedQueue.remove(loaded)) {
+                section.release();
+                return;
+            }
+            this.taskCounter.release();
+        });
+        return null;
+    }
+
     public int getMeshCacheCount() {
         return this.meshCache.getCount();
     }
@@ -130,13 +175,7 @@ public class RenderGenerationService {
         synchronized (this.taskQueue) {
             this.taskQueue.computeIfAbsent(ikey, key->{
                 this.taskCounter.release();
-                return new BuildTask(()->{
-                    if (checker.check(lvl, x, y, z)) {
-                        return this.world.acquireIfExists(lvl, x, y, z);
-                    } else {
-                        return null;
-                    }
-                });
+                return new BuildTask(lvl, x, y, z, checker);
             });
         }
     }
@@ -194,6 +233,10 @@ public class RenderGenerationService {
         while (!this.taskQueue.isEmpty()) {
             this.taskQueue.removeFirst();
         }
+        LoadedTask loaded;
+        while ((loaded = this.loadedQueue.poll()) != null) {
+            loaded.section.release();
+        }
         this.meshCache.free();
     }
 }
@@ -28,6 +28,8 @@ import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -40,6 +42,9 @@ public class WorldImporter {
         void update(int finished, int outof);
     }
 
+    //Sections per insertUpdates call, roughly a row of chunks of the region, each section is ~37kb
+    private static final int IMPORT_BATCH_SIZE = 512;
+
     private final WorldEngine world;
     private final ReadableContainer<RegistryEntry<Biome>> defaultBiomeProvider;
     private final Codec<ReadableContainer<RegistryEntry<Biome>>> biomeCodec;
@@ -159,6 +164,8 @@ public class WorldImporter {
             sectorsSavesBB.rewind();
             var sectorsSaves = sectorsSavesBB.order(ByteOrder.BIG_ENDIAN).asIntBuffer();
 
+            //Sections are inserted in batches so neighbouring chunks share the parent world section writes
+            var batch = new ArrayList<VoxelizedSection>(IMPORT_BATCH_SIZE);
             //Find and load all saved chunks
             for (int idx = 0; idx < 1024; idx++) {
                 int sectorMeta = sectorsSaves.get(idx);
@@ -193,7 +200,7 @@ public class WorldImporter {
                                     System.err.println("Error decompressing chunk data");
                                 } else {
                                     var nbt = NbtIo.readCompound(decompressedData);
-                                    this.importChunkNBT(nbt);
+                                    this.importChunkNBT(nbt, batch);
                                 }
                             }
                         }
@@ -201,7 +208,11 @@ public class WorldImporter {
                 }
 
                 MemoryUtil.memFree(data);
+                if (batch.size() >= IMPORT_BATCH_SIZE) {
+                    this.insertBatch(batch);
+                }
             }
+            this.insertBatch(batch);
 
             MemoryUtil.memFree(sectorsSavesBB);
         }
@@ -217,14 +228,29 @@ public class WorldImporter {
         }
     }
 
-    private void importChunkNBT(NbtCompound chunk) {
+    private void insertBatch(List<VoxelizedSection> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        this.world.insertUpdates(batch);
+        batch.clear();
+        while (this.world.savingService.getTaskCount() > 4000) {
+            try {
+                Thread.sleep(250);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    private void importChunkNBT(NbtCompound chunk, List<VoxelizedSection> batch) {
         try {
             int x = chunk.getInt("xPos");
             int z = chunk.getInt("zPos");
             for (var sectionE : chunk.getList("sections", NbtElement.COMPOUND_TYPE)) {
                 var section = (NbtCompound) sectionE;
                 int y = section.getInt("Y");
-                this.importSectionNBT(x, y, z, section);
+                this.importSectionNBT(x, y, z, section, batch);
             }
         } catch (Exception e) {
             System.err.println("Exception importing world chunk:");
@@ -238,7 +264,7 @@ public class WorldImporter {
 
 
     private static final Codec<PalettedContainer<BlockState>> BLOCK_STATE_CODEC = PalettedContainer.createPalettedContainerCodec(Block.STATE_IDS, BlockState.CODEC, PalettedContainer.PaletteProvider.BLOCK_STATE, Blocks.AIR.getDefaultState());
-    private void importSectionNBT(int x, int y, int z, NbtCompound section) {
+    private void importSectionNBT(int x, int y, int z, NbtCompound section, List<VoxelizedSection> batch) {
         if (section.getCompound("block_states").isEmpty()) {
             return;
         }
@@ -285,14 +311,7 @@ public class WorldImporter {
 
         WorldConversionFactory.mipSection(csec, this.world.getMapper());
 
-        this.world.insertUpdate(csec);
-        while (this.world.savingService.getTaskCount() > 4000) {
-            try {
-                Thread.sleep(250);
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-        }
+        batch.add(csec);
     }
 
 }
@@ -2,22 +2,32 @@ package me.cortex.voxy.client.saver;
 
 import me.cortex.voxy.client.config.VoxyConfig;
 import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.StorageMigrator;
 import me.cortex.voxy.common.storage.compressors.ZSTDCompressor;
 import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
 import me.cortex.voxy.common.config.Serialization;
 import me.cortex.voxy.common.storage.config.StorageConfig;
 import me.cortex.voxy.common.storage.other.CompressionStorageAdaptor;
+import me.cortex.voxy.common.storage.other.MortonKeyStorageAdaptor;
+import me.cortex.voxy.common.storage.other.ReadCacheStorageAdaptor;
 import me.cortex.voxy.common.storage.rocksdb.RocksDBStorageBackend;
 import me.cortex.voxy.common.world.WorldEngine;
+import me.cortex.voxy.common.world.WorldSection;
 import net.minecraft.client.MinecraftClient;
 import net.minecraft.client.world.ClientWorld;
+import net.minecraft.text.Text;
 import net.minecraft.util.WorldSavePath;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 //Sets up a world engine with respect to the world the client is currently loaded into
 // this is a bit tricky as each world has its own config, e.g. storage configuration
@@ -34,11 +44,20 @@ public class ContextSelectionSystem {
         //Load the default config
         var baseDB = new RocksDBStorageBackend.Config();
 
+        //Store sections in z-order so 3d neighbourhoods are close together in the rocksdb key order
+        var mortonKeys = new MortonKeyStorageAdaptor.Config();
+        mortonKeys.delegate = baseDB;
+
         var compressor = new ZSTDCompressor.Config();
         compressor.compressionLevel = 7;
+        compressor.dictionarySampleCount = 2048;
+
+        //Cache the compressed section data, the same sections get reloaded constantly as lods change around the player
+        var readCache = new ReadCacheStorageAdaptor.Config();
+        readCache.delegate = mortonKeys;
 
         var compression = new CompressionStorageAdaptor.Config();
-        compression.delegate = baseDB;
+        compression.delegate = readCache;
         compression.compressor = compressor;
 
         config.storageConfig = compression;
@@ -50,6 +69,16 @@ public class ContextSelectionSystem {
     }
 
     public static class Selection {
+        //A pending storage migration, holds the world config to migrate to, it is run in the background instead of
+        // creating an engine as the storage cant be in use while migrating
+        private static final String MIGRATION_CONFIG_FILE = "migration.json";
+        private static final String MIGRATION_STORAGE_PATH = ConfigBuildCtx.BASE_SAVE_PATH+"/"+ConfigBuildCtx.WORLD_IDENTIFIER+"/storage_migration/";
+        private static final String MIGRATION_CHECKPOINT_FILE = "migration.ckpt";
+        //Marks a world whose storage was fully copied, so only the swap is left if the migration is interrupted
+        private static final String MIGRATION_DONE_FILE = "migration.done";
+        //Selection folders with a migration running, selections are recreated for every engine so this is shared
+        private static final Set<Path> MIGRATING_SELECTIONS = ConcurrentHashMap.newKeySet();
+
         private final Path selectionFolder;
         private final String worldId;
 
@@ -89,15 +118,219 @@ public class ContextSelectionSystem {
         }
 
         public StorageBackend createStorageBackend() {
+            return createStorageBackend(this.config.storageConfig, this.selectionFolder, this.worldId, ConfigBuildCtx.DEFAULT_STORAGE_PATH);
+        }
+
+        private static StorageBackend createStorageBackend(StorageConfig config, Path selectionFolder, String worldId, String storagePath) {
             var ctx = new ConfigBuildCtx();
-            ctx.setProperty(ConfigBuildCtx.BASE_SAVE_PATH, this.selectionFolder.toString());
-            ctx.setProperty(ConfigBuildCtx.WORLD_IDENTIFIER, this.worldId);
-            ctx.pushPath(ConfigBuildCtx.DEFAULT_STORAGE_PATH);
-            return this.config.storageConfig.build(ctx);
+            ctx.setProperty(ConfigBuildCtx.BASE_SAVE_PATH, selectionFolder.toString());
+            ctx.setProperty(ConfigBuildCtx.WORLD_IDENTIFIER, worldId);
+            ctx.pushPath(storagePath);
+            return config.build(ctx);
+        }
+
+        //Schedules the storage of every world in the selection to be migrated to the new config
+        public void scheduleMigration(WorldConfig target) {
+            try {
+                Files.writeString(this.selectionFolder.resolve(MIGRATION_CONFIG_FILE), Serialization.GSON.toJson(target));
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public boolean isMigrating() {
+            return MIGRATING_SELECTIONS.contains(this.selectionFolder);
+        }
+
+        //Starts the pending migration of the selection on a background thread, returns false if there is none, the storage
+        // of the selection must not be opened while this returns true, onFinished is run once the migration finished or
+        // failed
+        public boolean startPendingMigration(Runnable onFinished) {
+            if (!Files.exists(this.selectionFolder.resolve(MIGRATION_CONFIG_FILE))) {
+                return this.isMigrating();
+            }
+            if (!MIGRATING_SELECTIONS.add(this.selectionFolder)) {
+                return true;
+            }
+            var thread = new Thread(() -> {
+                try {
+                    this.runPendingMigration();
+                } catch (Exception e) {
+                    System.err.println("Voxy storage migration failed");
+                    e.printStackTrace();
+                    report("Voxy storage migration failed, it will resume the next time the world is loaded, please check logs");
+                } finally {
+                    MIGRATING_SELECTIONS.remove(this.selectionFolder);
+                    onFinished.run();
+                }
+            });
+            thread.setName("Voxy storage migration");
+            thread.setDaemon(true);
+            thread.start();
+            return true;
+        }
+
+        private static void report(String message) {
+            System.out.println(message);
+            var client = MinecraftClient.getInstance();
+            client.execute(() -> {
+                if (client.player != null) {
+                    client.player.sendMessage(Text.literal(message));
+                }
+            });
+        }
+
+        //Migrates the storage of all the worlds in the selection (the config is shared between them) to the pending
+        // config, if interrupted it resumes from the last checkpoint of each world the next time it is run
+        //Every world is copied before any storage is swapped, so a failed copy leaves all the old storages in use
+        private void runPendingMigration() {
+            var migrationFile = this.selectionFolder.resolve(MIGRATION_CONFIG_FILE);
+            List<Path> worlds;
+            try (var stream = Files.list(this.selectionFolder)) {
+                //A world interrupted mid swap only has the migrated storage
+                worlds = stream.filter(path -> Files.isDirectory(path.resolve("storage")) || Files.isDirectory(path.resolve("storage_migration"))).toList();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            WorldConfig target;
+            try {
+                target = Serialization.GSON.fromJson(Files.readString(migrationFile), WorldConfig.class);
+                if (target == null || target.storageConfig == null) {
+                    throw new IllegalStateException("Migration config has no storage config");
+                }
+            } catch (Exception e) {
+                System.err.println("Failed to load the storage migration config, skipping the migration");
+                e.printStackTrace();
+                discardMigration(migrationFile, worlds);
+                report("Voxy storage migration config is invalid, keeping the old storage");
+                return;
+            }
+
+            int transcoders = Math.max(1, Runtime.getRuntime().availableProcessors()-2);
+            try {
+                for (var world : worlds) {
+                    if (Files.exists(world.resolve(MIGRATION_DONE_FILE)) || !Files.isDirectory(world.resolve("storage"))) {
+                        continue;
+                    }
+                    this.migrateWorld(world, target, transcoders);
+                }
+            } catch (Exception e) {
+                //Nothing has been swapped yet
+                System.err.println("Voxy storage migration failed, keeping the old storage");
+                e.printStackTrace();
+                discardMigration(migrationFile, worlds);
+                report("Voxy storage migration failed, keeping the old storage, please check logs");
+                return;
+            }
+
+            //If this is interrupted the migration file is still there, so the next run finishes the swaps
+            try {
+                for (var world : worlds) {
+                    swapInMigratedStorage(world);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException("Failed to swap in the migrated storage", e);
+            }
+
+            this.config.storageConfig = target.storageConfig;
+            this.save();
+            try {
+                for (var world : worlds) {
+                    Files.deleteIfExists(world.resolve(MIGRATION_DONE_FILE));
+                    Files.deleteIfExists(world.resolve(MIGRATION_CHECKPOINT_FILE));
+                }
+                Files.delete(migrationFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            report("Voxy storage migration finished");
+        }
+
+        private void migrateWorld(Path world, WorldConfig target, int transcoders) throws IOException {
+            var worldId = world.getFileName().toString();
+            report("Migrating voxy storage of " + worldId);
+            var source = createStorageBackend(this.config.storageConfig, this.selectionFolder, worldId, ConfigBuildCtx.DEFAULT_STORAGE_PATH);
+            try {
+                var destination = createStorageBackend(target.storageConfig, this.selectionFolder, worldId, MIGRATION_STORAGE_PATH);
+                try {
+                    long start = System.currentTimeMillis();
+                    long[] lastReport = {0};
+                    new StorageMigrator(source, destination, world.resolve(MIGRATION_CHECKPOINT_FILE), transcoders, 2).run((sections, bytes) -> {
+                        if (System.currentTimeMillis() - lastReport[0] > 5000) {
+                            lastReport[0] = System.currentTimeMillis();
+                            double seconds = Math.max(1, lastReport[0] - start)/1000.0;
+                            report(String.format("Migrated %d sections (%d MB) of %s, %.0f sections/s", sections, bytes>>20, worldId, sections/seconds));
+                        }
+                    });
+                } finally {
+                    destination.close();
+                }
+            } finally {
+                source.close();
+            }
+            Files.createFile(world.resolve(MIGRATION_DONE_FILE));
+        }
+
+        //Moves the migration config aside so the old storage keeps being used, it can be renamed back to retry
+        //The partial copies and their checkpoints are deleted, the checkpoint doesnt record the config it was written
+        // with so a differently configured migration scheduled next would otherwise resume into the old copy
+        private static void discardMigration(Path migrationFile, List<Path> worlds) {
+            try {
+                Files.move(migrationFile, migrationFile.resolveSibling(MIGRATION_CONFIG_FILE + ".failed"), StandardCopyOption.REPLACE_EXISTING);
+                for (var world : worlds) {
+                    Files.deleteIfExists(world.resolve(MIGRATION_DONE_FILE));
+                    Files.deleteIfExists(world.resolve(MIGRATION_CHECKPOINT_FILE));
+                    //A world interrupted mid swap has no other storage, its copy is kept
+                    if (Files.isDirectory(world.resolve("storage"))) {
+                        deleteDirectory(world.resolve("storage_migration"));
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to discard the storage migration config");
+                e.printStackTrace();
+            }
+        }
+
+        private static void deleteDirectory(Path directory) throws IOException {
+            if (!Files.exists(directory)) {
+                return;
+            }
+            try (var stream = Files.walk(directory)) {
+                //Children before their parents
+                for (var path : stream.sorted(Comparator.reverseOrder()).toList()) {
+                    Files.delete(path);
+                }
+            }
+        }
+
+        //Swaps the migrated storage of the world in place of the current one, the two moves arent atomic so this is
+        // written to be rerun after being interrupted between them
+        private static void swapInMigratedStorage(Path world) throws IOException {
+            var migrated = world.resolve("storage_migration");
+            if (!Files.exists(migrated)) {
+                return;
+            }
+            var storage = world.resolve("storage");
+            if (Files.exists(storage)) {
+                //Keep the old storage around rather than deleting it, it can be removed by hand once the new one is verified
+                Files.move(storage, world.resolve("storage_pre_migration_" + System.currentTimeMillis()));
+            }
+            Files.move(migrated, storage);
         }
 
         public WorldEngine createEngine() {
-            return new WorldEngine(this.createStorageBackend(), VoxyConfig.CONFIG.ingestThreads, VoxyConfig.CONFIG.savingThreads, 5);
+            var world = this.selectionFolder.resolve(this.worldId);
+            if (!Files.exists(world.resolve("storage")) && Files.exists(world.resolve("storage_migration"))) {
+                //Interrupted between the moves of a swap after the config was already switched to the migrated storage
+                try {
+                    swapInMigratedStorage(world);
+                } catch (IOException e) {
+                    throw new RuntimeException("Failed to finish swapping in the migrated storage of " + this.worldId, e);
+                }
+            }
+            //The pool is shared by all worlds so only the budget of new slabs changes
+            WorldSection.getRawDataPool().setBudget((long) VoxyConfig.CONFIG.sectionPoolSizeMb<<20);
+            return new WorldEngine(this.createStorageBackend(), VoxyConfig.CONFIG.ingestThreads, VoxyConfig.CONFIG.savingThreads, VoxyConfig.CONFIG.ioThreads, Math.max(1, Math.min(16, VoxyConfig.CONFIG.lodLevels)), VoxyConfig.CONFIG.saveCoalesceWindowMs, VoxyConfig.CONFIG.maxSaveDelayMs, (long) VoxyConfig.CONFIG.sectionCacheSizeMb<<20);
         }
 
         //Saves the config for the world selection or something, need to figure out how to make it work with dimensional configs maybe?
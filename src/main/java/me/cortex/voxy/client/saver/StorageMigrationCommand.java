@@ -0,0 +1,51 @@
+package me.cortex.voxy.client.saver;
+
+import com.mojang.brigadier.arguments.StringArgumentType;
+import com.mojang.brigadier.builder.LiteralArgumentBuilder;
+import com.mojang.brigadier.context.CommandContext;
+import me.cortex.voxy.client.Voxy;
+import me.cortex.voxy.client.core.IGetVoxelCore;
+import me.cortex.voxy.common.config.Serialization;
+import net.fabricmc.fabric.api.client.command.v2.ClientCommandManager;
+import net.fabricmc.fabric.api.client.command.v2.FabricClientCommandSource;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+//Migrates the storage of the current world selection to a new storage config, the voxel core is shut down as the storage
+// cant be in use while it is migrated, it is recreated once the migration that runs in the background finishes
+public class StorageMigrationCommand {
+    public static LiteralArgumentBuilder<FabricClientCommandSource> register() {
+        return ClientCommandManager.literal("voxy").then(
+                ClientCommandManager.literal("storage")
+                        .then(ClientCommandManager.literal("migrate")
+                                .then(ClientCommandManager.argument("config_file", StringArgumentType.string())
+                                        .executes(StorageMigrationCommand::scheduleMigration))));
+    }
+
+    private static int scheduleMigration(CommandContext<FabricClientCommandSource> ctx) {
+        var file = Path.of(ctx.getArgument("config_file", String.class));
+        ContextSelectionSystem.WorldConfig config;
+        try {
+            config = Serialization.GSON.fromJson(Files.readString(file), ContextSelectionSystem.WorldConfig.class);
+            if (config == null || config.storageConfig == null) {
+                throw new IllegalStateException("No storage config in " + file);
+            }
+        } catch (Exception e) {
+            ctx.getSource().sendError(Text.literal("Failed to load the storage config: " + e.getMessage()));
+            return 1;
+        }
+        var selection = Voxy.getSelection(ctx.getSource().getWorld());
+        if (selection.isMigrating()) {
+            ctx.getSource().sendError(Text.literal("A voxy storage migration is already running"));
+            return 1;
+        }
+        selection.scheduleMigration(config);
+        ctx.getSource().sendFeedback(Text.literal("Voxy storage migration started, lods are disabled until it finishes"));
+        //Recreating the core starts the pending migration instead
+        ((IGetVoxelCore) MinecraftClient.getInstance().worldRenderer).reloadVoxelCore();
+        return 0;
+    }
+}
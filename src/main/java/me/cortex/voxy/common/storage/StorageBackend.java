@@ -1,19 +1,100 @@
 package me.cortex.voxy.common.storage;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 public abstract class StorageBackend {
+    public interface SectionDataVisitor<T> {
+        //The data buffer is only valid for the duration of the call and must not be modified, freed or escape the
+        // visitor, it is null if there is no data stored for the key
+        T visit(ByteBuffer data);
+    }
+
+    public interface SectionScanVisitor {
+        //Same buffer lifetime rules as SectionDataVisitor, data is never null, return false to stop the scan
+        boolean visit(long key, ByteBuffer data);
+    }
 
     public abstract ByteBuffer getSectionData(long key);
 
+    //Scoped read of the section data, backends that can expose the stored bytes directly (e.g. a memory mapped
+    // value within a read transaction) should override this to avoid copying the data out
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return this.visitCopiedSectionData(key, visitor);
+    }
+
+    protected final <T> T visitCopiedSectionData(long key, SectionDataVisitor<T> visitor) {
+        var data = this.getSectionData(key);
+        try {
+            return visitor.visit(data);
+        } finally {
+            if (data != null) {
+                MemoryUtil.memFree(data);
+            }
+        }
+    }
+
     public abstract void setSectionData(long key, ByteBuffer data);
 
     public abstract void deleteSectionData(long key);
 
+    //Batched variants of getSectionData and setSectionData, backends that can share a single transaction or round trip
+    // across multiple keys should override these, the default implementations just loop over the single key versions
+    //Returns an array parallel to keys, entries are null if there is no data for the key
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = this.getSectionData(keys[i]);
+        }
+        return out;
+    }
+
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        for (int i = 0; i < keys.length; i++) {
+            this.setSectionData(keys[i], data[i]);
+        }
+    }
+
+    //Streams every stored section with a key within [minKey, maxKey] (compared unsigned) to the visitor, the order of
+    // the keys is backend specific, returns false if the visitor stopped the scan early
+    //The visitor must not write to the backend being scanned, writes from other threads during the scan may or may not
+    // be seen by it
+    public abstract boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor);
+
+    public final boolean scanSections(SectionScanVisitor visitor) {
+        return this.scanSections(0, -1, visitor);
+    }
+
+    //Scans only the sections of a single lod level, the level is the top 4 bits of the key so it is a contiguous range
+    public final boolean scanLevel(int lvl, SectionScanVisitor visitor) {
+        return this.scanSections(getLevelMinKey(lvl), getLevelMaxKey(lvl), visitor);
+    }
+
+    //If true every scan of unchanged contents visits the same keys in the same order, each key exactly once, so a
+    // position in the scan can be resumed from later
+    public boolean hasOrderedScans() {
+        return false;
+    }
+
+    public static long getLevelMinKey(int lvl) {
+        return ((long)lvl)<<60;
+    }
+
+    public static long getLevelMaxKey(int lvl) {
+        return (((long)lvl)<<60)|((1L<<60)-1);
+    }
+
+    protected static boolean isKeyInRange(long key, long minKey, long maxKey) {
+        return Long.compareUnsigned(key, minKey) >= 0 && Long.compareUnsigned(key, maxKey) <= 0;
+    }
+
     public abstract void putIdMapping(int id, ByteBuffer data);
 
     public abstract Int2ObjectOpenHashMap<byte[]> getIdMappingsData();
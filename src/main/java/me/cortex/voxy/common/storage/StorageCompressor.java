@@ -1,11 +1,40 @@
 package me.cortex.voxy.common.storage;
 
+import org.lwjgl.system.MemoryUtil;
+
 import java.nio.ByteBuffer;
 
 public interface StorageCompressor {
+    //Persistent state store for compressors that need it (e.g. a trained dictionary), entries are kept in a
+    // reserved part of the id mapping table of the storage the compressor is attached to
+    interface MetadataStore {
+        byte[] get(int id);
+
+        void put(int id, ByteBuffer data);
+    }
+
+    //Called once by the owning adaptor before any data is compressed or decompressed
+    default void attachMetadataStore(MetadataStore store) {}
+
     ByteBuffer compress(ByteBuffer saveData);
 
     ByteBuffer decompress(ByteBuffer saveData);
 
+    //Decompresses into the supplied buffer, returning it with the position at 0 and the limit set to the decompressed size
+    default ByteBuffer decompress(ByteBuffer saveData, ByteBuffer into) {
+        var decompressed = this.decompress(saveData);
+        try {
+            into.clear();
+            if (into.remaining() < decompressed.remaining()) {
+                throw new IllegalArgumentException("Decompressed data larger than supplied buffer");
+            }
+            MemoryUtil.memCopy(decompressed, into);
+            into.limit(decompressed.remaining());
+            return into;
+        } finally {
+            MemoryUtil.memFree(decompressed);
+        }
+    }
+
     void close();
 }
@@ -0,0 +1,395 @@
+package me.cortex.voxy.common.storage;
+
+import me.cortex.voxy.common.storage.other.CompressionStorageAdaptor;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+//Copies every section and id mapping from one storage backend into another, neither backend may be in use by anything
+// else while migrating
+//The sections go through a pipeline of a single reader scanning the source, transcoder threads that decompress with
+// the source compressor and recompress with the target compressor, and writer threads writing batches to the target
+//Memory is bounded by the queue capacities and the batch byte limit
+//Progress is checkpointed as the number of sections (in source scan order) that are known to be durably written to the
+// target, if the source scans in a stable order an interrupted migration resumes from that point, otherwise it restarts
+// from the first section (rewriting a section already in the target is harmless)
+public class StorageMigrator {
+    public interface ProgressListener {
+        void progress(long sections, long bytes);
+    }
+
+    private static final int BATCH_SIZE = 256;
+    private static final int MAX_BATCH_BYTES = 4<<20;
+    private static final long CHECKPOINT_INTERVAL_MS = 10_000;
+    private static final Batch END = new Batch(-1);
+
+    private static final class Batch {
+        private final long sequence;
+        private final long[] keys;
+        private final ByteBuffer[] data;
+        private int count;
+        private int bytes;
+        //Number of scanned sections up to and including the last section of this batch
+        private long scanEnd;
+
+        private Batch(long sequence) {
+            this.sequence = sequence;
+            this.keys = sequence == -1 ? null : new long[BATCH_SIZE];
+            this.data = sequence == -1 ? null : new ByteBuffer[BATCH_SIZE];
+        }
+
+        private boolean isFull() {
+            return this.count == BATCH_SIZE || this.bytes >= MAX_BATCH_BYTES;
+        }
+
+        private void free() {
+            for (int i = 0; i < this.count; i++) {
+                if (this.data[i] != null) {
+                    MemoryUtil.memFree(this.data[i]);
+                    this.data[i] = null;
+                }
+            }
+        }
+    }
+
+    private final StorageBackend source;
+    private final StorageBackend target;
+    //The backends the pipeline reads from and writes to, these are below the top level compression adaptors (if any)
+    // so that the compression work is spread over the transcoder threads
+    private final StorageBackend rawSource;
+    private final StorageBackend rawTarget;
+    private final StorageCompressor sourceCompressor;
+    private final StorageCompressor targetCompressor;
+    private final Path checkpointFile;
+    private final int transcoderCount;
+    private final int writerCount;
+
+    private final BlockingQueue<Batch> transcodeQueue;
+    private final BlockingQueue<Batch> writeQueue;
+    private final AtomicInteger runningTranscoders;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final AtomicLong migratedSections = new AtomicLong();
+    private final AtomicLong migratedBytes = new AtomicLong();
+
+    //Batches can finish writing out of order, only the contiguous prefix of finished batches is committed
+    private final Object commitLock = new Object();
+    private final ArrayList<Batch> finishedOutOfOrder = new ArrayList<>();
+    private long nextCommitSequence;
+    private long committedScanEnd;
+    private long committedLastKey;
+
+    public StorageMigrator(StorageBackend source, StorageBackend target, Path checkpointFile, int transcoderCount, int writerCount) {
+        if (transcoderCount < 1 || writerCount < 1) {
+            throw new IllegalArgumentException("Need at least 1 transcoder and writer thread");
+        }
+        this.source = source;
+        this.target = target;
+        if (source instanceof CompressionStorageAdaptor compression) {
+            this.rawSource = compression.getDelegate();
+            this.sourceCompressor = compression.getCompressor();
+        } else {
+            this.rawSource = source;
+            this.sourceCompressor = null;
+        }
+        if (target instanceof CompressionStorageAdaptor compression) {
+            this.rawTarget = compression.getDelegate();
+            this.targetCompressor = compression.getCompressor();
+        } else {
+            this.rawTarget = target;
+            this.targetCompressor = null;
+        }
+        this.checkpointFile = checkpointFile;
+        this.transcoderCount = transcoderCount;
+        this.writerCount = writerCount;
+        this.runningTranscoders = new AtomicInteger(transcoderCount);
+        this.transcodeQueue = new ArrayBlockingQueue<>(transcoderCount*2);
+        this.writeQueue = new ArrayBlockingQueue<>(writerCount*2);
+    }
+
+    //Runs the migration to completion on the calling thread, throws if any stage fails, the checkpoint is left in place
+    // so the migration can be resumed
+    public void run(ProgressListener listener) {
+        long resumeFrom = 0;
+        long resumeKey = 0;
+        if (Files.exists(this.checkpointFile) && !this.rawSource.hasOrderedScans()) {
+            System.out.println("Source storage has no stable scan order, restarting the storage migration from the start");
+        } else if (Files.exists(this.checkpointFile)) {
+            try {
+                var checkpoint = ByteBuffer.wrap(Files.readAllBytes(this.checkpointFile));
+                resumeFrom = checkpoint.getLong();
+                resumeKey = checkpoint.getLong();
+                System.out.println("Resuming storage migration after " + resumeFrom + " sections");
+            } catch (Exception e) {
+                System.err.println("Failed to read the storage migration checkpoint, restarting the migration: " + e);
+                resumeFrom = 0;
+            }
+        }
+        this.committedScanEnd = resumeFrom;
+        this.committedLastKey = resumeKey;
+
+        //Id mappings are small and putting them is idempotent, so they are always copied in full
+        for (var entry : this.source.getIdMappingsData().int2ObjectEntrySet()) {
+            var data = MemoryUtil.memAlloc(entry.getValue().length);
+            data.put(entry.getValue()).rewind();
+            try {
+                this.target.putIdMapping(entry.getIntKey(), data);
+            } finally {
+                MemoryUtil.memFree(data);
+            }
+        }
+
+        List<Thread> threads = new ArrayList<>();
+        long finalResumeFrom = resumeFrom;
+        long finalResumeKey = resumeKey;
+        threads.add(this.startThread("Storage migration reader", () -> this.read(finalResumeFrom, finalResumeKey)));
+        for (int i = 0; i < this.transcoderCount; i++) {
+            threads.add(this.startThread("Storage migration transcoder #" + i, this::transcode));
+        }
+        for (int i = 0; i < this.writerCount; i++) {
+            threads.add(this.startThread("Storage migration writer #" + i, this::write));
+        }
+
+        try {
+            long lastCheckpoint = System.currentTimeMillis();
+            for (var thread : threads) {
+                while (thread.isAlive()) {
+                    thread.join(1000);
+                    if (this.failure.get() != null) {
+                        threads.forEach(Thread::interrupt);
+                    }
+                    listener.progress(this.migratedSections.get(), this.migratedBytes.get());
+                    if (System.currentTimeMillis() - lastCheckpoint > CHECKPOINT_INTERVAL_MS) {
+                        this.checkpoint();
+                        lastCheckpoint = System.currentTimeMillis();
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            this.failure.compareAndSet(null, e);
+            threads.forEach(Thread::interrupt);
+        }
+
+        var error = this.failure.get();
+        //Release whatever was still queued when a stage failed
+        this.drain(this.transcodeQueue);
+        this.drain(this.writeQueue);
+        synchronized (this.commitLock) {
+            this.finishedOutOfOrder.clear();
+        }
+        if (error != null) {
+            try {
+                this.checkpoint();
+            } catch (Exception e) {
+                error.addSuppressed(e);
+            }
+            throw new IllegalStateException("Storage migration failed", error);
+        }
+        this.checkpoint();
+        listener.progress(this.migratedSections.get(), this.migratedBytes.get());
+    }
+
+    private Thread startThread(String name, Runnable task) {
+        var thread = new Thread(() -> {
+            try {
+                task.run();
+            } catch (Throwable e) {
+                this.failure.compareAndSet(null, e);
+            }
+        });
+        thread.setName(name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    private void offerUntilFailed(BlockingQueue<Batch> queue, Batch batch) throws InterruptedException {
+        while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+            if (this.failure.get() != null) {
+                if (batch != END) {
+                    batch.free();
+                }
+                throw new InterruptedException("Storage migration failed");
+            }
+        }
+    }
+
+    private void drain(BlockingQueue<Batch> queue) {
+        Batch batch;
+        while ((batch = queue.poll()) != null) {
+            if (batch != END) {
+                batch.free();
+            }
+        }
+    }
+
+    private void read(long resumeFrom, long resumeKey) {
+        long[] scanned = new long[1];
+        Batch[] current = {new Batch(0)};
+        long[] sequence = {1};
+        this.rawSource.scanSections((key, data) -> {
+            long index = scanned[0]++;
+            if (index < resumeFrom) {
+                if (index == resumeFrom-1 && key != resumeKey) {
+                    throw new IllegalStateException("Source storage changed since the migration checkpoint, delete " + this.checkpointFile + " to restart the migration");
+                }
+                return true;
+            }
+            if (this.failure.get() != null) {
+                return false;
+            }
+            var batch = current[0];
+            var copy = MemoryUtil.memAlloc(data.remaining());
+            MemoryUtil.memCopy(data, copy);
+            batch.keys[batch.count] = key;
+            batch.data[batch.count++] = copy;
+            batch.bytes += copy.remaining();
+            batch.scanEnd = index+1;
+            if (batch.isFull()) {
+                try {
+                    this.offerUntilFailed(this.transcodeQueue, batch);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+                current[0] = new Batch(sequence[0]++);
+            }
+            return true;
+        });
+        try {
+            if (current[0].count != 0) {
+                this.offerUntilFailed(this.transcodeQueue, current[0]);
+            }
+            for (int i = 0; i < this.transcoderCount; i++) {
+                this.offerUntilFailed(this.transcodeQueue, END);
+            }
+        } catch (InterruptedException e) {
+            //Another stage failed
+        }
+    }
+
+    private void transcode() {
+        try {
+            while (true) {
+                var batch = this.transcodeQueue.take();
+                if (batch == END) {
+                    //The last transcoder to finish ends the writers
+                    if (this.runningTranscoders.decrementAndGet() == 0) {
+                        for (int i = 0; i < this.writerCount; i++) {
+                            this.offerUntilFailed(this.writeQueue, END);
+                        }
+                    }
+                    return;
+                }
+                try {
+                    for (int i = 0; i < batch.count; i++) {
+                        var data = batch.data[i];
+                        if (this.sourceCompressor != null) {
+                            var decompressed = this.sourceCompressor.decompress(data);
+                            MemoryUtil.memFree(data);
+                            batch.data[i] = data = decompressed;
+                        }
+                        if (this.targetCompressor != null) {
+                            var compressed = this.targetCompressor.compress(data);
+                            MemoryUtil.memFree(data);
+                            batch.data[i] = compressed;
+                        }
+                    }
+                } catch (Throwable e) {
+                    batch.free();
+                    throw e;
+                }
+                this.offerUntilFailed(this.writeQueue, batch);
+            }
+        } catch (InterruptedException e) {
+            //Another stage failed
+        }
+    }
+
+    private void write() {
+        try {
+            while (true) {
+                var batch = this.writeQueue.take();
+                if (batch == END) {
+                    return;
+                }
+                long bytes = 0;
+                for (int i = 0; i < batch.count; i++) {
+                    bytes += batch.data[i].remaining();
+                }
+                try {
+                    var keys = batch.count == BATCH_SIZE ? batch.keys : Arrays.copyOf(batch.keys, batch.count);
+                    var data = batch.count == BATCH_SIZE ? batch.data : Arrays.copyOf(batch.data, batch.count);
+                    this.rawTarget.setSectionDataBatch(keys, data);
+                } finally {
+                    batch.free();
+                }
+                this.migratedSections.addAndGet(batch.count);
+                this.migratedBytes.addAndGet(bytes);
+                this.commit(batch);
+            }
+        } catch (InterruptedException e) {
+            //Another stage failed
+        }
+    }
+
+    private void commit(Batch batch) {
+        synchronized (this.commitLock) {
+            if (batch.sequence != this.nextCommitSequence) {
+                this.finishedOutOfOrder.add(batch);
+                return;
+            }
+            this.advance(batch);
+            boolean progressed = true;
+            while (progressed) {
+                progressed = false;
+                for (int i = 0; i < this.finishedOutOfOrder.size(); i++) {
+                    var next = this.finishedOutOfOrder.get(i);
+                    if (next.sequence == this.nextCommitSequence) {
+                        this.finishedOutOfOrder.remove(i);
+                        this.advance(next);
+                        progressed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void advance(Batch batch) {
+        this.nextCommitSequence++;
+        this.committedScanEnd = batch.scanEnd;
+        this.committedLastKey = batch.keys[batch.count-1];
+    }
+
+    //Flushes the target then records the committed prefix, the prefix is captured before flushing so everything it
+    // covers is durable once the checkpoint is written
+    private void checkpoint() {
+        long scanEnd;
+        long lastKey;
+        synchronized (this.commitLock) {
+            scanEnd = this.committedScanEnd;
+            lastKey = this.committedLastKey;
+        }
+        this.target.flush();
+        var data = ByteBuffer.allocate(16).putLong(scanEnd).putLong(lastKey);
+        try {
+            var tmp = this.checkpointFile.resolveSibling(this.checkpointFile.getFileName() + ".tmp");
+            Files.write(tmp, data.array());
+            Files.move(tmp, this.checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to write the storage migration checkpoint", e);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package me.cortex.voxy.common.storage.compressors;
+
+import me.cortex.voxy.common.storage.StorageCompressor;
+import me.cortex.voxy.common.storage.config.CompressorConfig;
+import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import static org.lwjgl.util.lz4.LZ4.*;
+import static org.lwjgl.util.lz4.LZ4HC.*;
+
+//Much faster to decompress than zstd at a worse ratio, suited to the frequently reloaded low lod levels
+//The lz4 block format doesnt store the decompressed size so each block is prefixed with it
+public class LZ4Compressor implements StorageCompressor {
+    private static final int MAX_DECOMPRESSED_SIZE = 32*32*32*8*2;
+    private static final int HEADER_SIZE = 4;
+
+    //Per thread compression state and scratch buffer, lz4 would otherwise allocate the state on every call
+    private static final class Contexts {
+        private final ByteBuffer state;
+        private ByteBuffer scratch;
+
+        private Contexts(boolean highCompression) {
+            this.state = MemoryUtil.memAlloc(highCompression?LZ4_sizeofStateHC():LZ4_sizeofState());
+        }
+
+        private ByteBuffer getScratch(int size) {
+            if (this.scratch == null || this.scratch.capacity() < size) {
+                if (this.scratch != null) {
+                    MemoryUtil.memFree(this.scratch);
+                }
+                this.scratch = MemoryUtil.memAlloc(size);
+            }
+            this.scratch.clear();
+            return this.scratch;
+        }
+
+        private void free() {
+            MemoryUtil.memFree(this.state);
+            if (this.scratch != null) {
+                MemoryUtil.memFree(this.scratch);
+            }
+        }
+    }
+
+    //0 uses the fast compressor, otherwise the lz4hc level
+    private final int level;
+    private final int acceleration;
+    private final ConcurrentLinkedDeque<Contexts> allContexts = new ConcurrentLinkedDeque<>();
+    private final ThreadLocal<Contexts> contexts = ThreadLocal.withInitial(()->{
+        var ctx = new Contexts(this.level > 0);
+        this.allContexts.add(ctx);
+        return ctx;
+    });
+
+    public LZ4Compressor(int level) {
+        this(level, 1);
+    }
+
+    public LZ4Compressor(int level, int acceleration) {
+        this.level = level;
+        this.acceleration = Math.max(1, acceleration);
+    }
+
+    @Override
+    public ByteBuffer compress(ByteBuffer saveData) {
+        var ctx = this.contexts.get();
+        int size = saveData.remaining();
+        var scratch = ctx.getScratch(LZ4_compressBound(size));
+        int compressedSize;
+        if (this.level > 0) {
+            compressedSize = LZ4_compress_HC_extStateHC(ctx.state, saveData, scratch, this.level);
+        } else {
+            compressedSize = LZ4_compress_fast_extState(ctx.state, saveData, scratch, this.acceleration);
+        }
+        if (compressedSize <= 0) {
+            throw new IllegalStateException("Failed to compress section data");
+        }
+        scratch.limit(compressedSize);
+        ByteBuffer compressedData = MemoryUtil.memAlloc(HEADER_SIZE + compressedSize);
+        MemoryUtil.memPutInt(MemoryUtil.memAddress(compressedData), size);
+        MemoryUtil.memCopy(scratch, compressedData.position(HEADER_SIZE));
+        return compressedData.rewind();
+    }
+
+    private static int getDecompressedSize(ByteBuffer saveData) {
+        if (saveData.remaining() < HEADER_SIZE) {
+            throw new IllegalStateException("Section data is not a valid lz4 block");
+        }
+        int size = MemoryUtil.memGetInt(MemoryUtil.memAddress(saveData));
+        if (size < 0 || size > MAX_DECOMPRESSED_SIZE) {
+            throw new IllegalStateException("Section data has invalid lz4 decompressed size " + size);
+        }
+        return size;
+    }
+
+    private static void decompress0(ByteBuffer saveData, ByteBuffer into, int size) {
+        int decompressed = LZ4_decompress_safe(saveData.slice(saveData.position() + HEADER_SIZE, saveData.remaining() - HEADER_SIZE), into);
+        if (decompressed != size) {
+            throw new IllegalStateException("Failed to decompress section data, lz4 returned " + decompressed + " expected " + size);
+        }
+        into.limit(size);
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer saveData) {
+        int size = getDecompressedSize(saveData);
+        var decompressed = MemoryUtil.memAlloc(size);
+        try {
+            decompress0(saveData, decompressed, size);
+        } catch (Throwable e) {
+            MemoryUtil.memFree(decompressed);
+            throw e;
+        }
+        return decompressed;
+    }
+
+    @Override
+    public ByteBuffer decompress(ByteBuffer saveData, ByteBuffer into) {
+        int size = getDecompressedSize(saveData);
+        into.clear();
+        if (into.remaining() < size) {
+            throw new IllegalArgumentException("Decompressed data larger than supplied buffer");
+        }
+        decompress0(saveData, into, size);
+        return into;
+    }
+
+    @Override
+    public void close() {
+        Contexts ctx;
+        while ((ctx = this.allContexts.poll()) != null) {
+            ctx.free();
+        }
+    }
+
+    public static class Config extends CompressorConfig {
+        //0 uses the fast compressor, 1-12 the lz4hc levels which trade compression speed for ratio, decompression
+        // speed is about the same for all levels
+        public int compressionLevel = 0;
+        //Only used by the fast compressor, higher is faster at a worse ratio
+        public int acceleration = 1;
+
+        @Override
+        public StorageCompressor build(ConfigBuildCtx ctx) {
+            return new LZ4Compressor(this.compressionLevel, this.acceleration);
+        }
+
+        public static String getConfigTypeName() {
+            return "LZ4";
+        }
+    }
+}
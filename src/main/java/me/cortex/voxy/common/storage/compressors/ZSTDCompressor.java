@@ -6,44 +6,259 @@ import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
 import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+import static org.lwjgl.util.zstd.Zdict.*;
 import static org.lwjgl.util.zstd.Zstd.*;
 
 public class ZSTDCompressor implements StorageCompressor {
+    private static final int MAX_DECOMPRESSED_SIZE = 32*32*32*8*2;
+    //Metadata store id of the trained dictionary
+    private static final int DICTIONARY_METADATA_ID = 0;
+    //Upper bound on the amount of sample data held in memory for dictionary training
+    private static final long MAX_SAMPLE_BYTES = 1<<26;
+
+    //Per thread reusable zstd contexts and compression scratch buffer
+    private static final class Contexts {
+        private final long cctx = ZSTD_createCCtx();
+        private final long dctx = ZSTD_createDCtx();
+        private ByteBuffer scratch;
+
+        private ByteBuffer getScratch(long size) {
+            if (this.scratch == null || this.scratch.capacity() < size) {
+                if (this.scratch != null) {
+                    MemoryUtil.memFree(this.scratch);
+                }
+                this.scratch = MemoryUtil.memAlloc((int) size);
+            }
+            this.scratch.clear();
+            return this.scratch;
+        }
+
+        private void free() {
+            ZSTD_freeCCtx(this.cctx);
+            ZSTD_freeDCtx(this.dctx);
+            if (this.scratch != null) {
+                MemoryUtil.memFree(this.scratch);
+            }
+        }
+    }
+
     private final int level;
+    private final ConcurrentLinkedDeque<Contexts> allContexts = new ConcurrentLinkedDeque<>();
+    private final ThreadLocal<Contexts> contexts = ThreadLocal.withInitial(()->{
+        var ctx = new Contexts();
+        this.allContexts.add(ctx);
+        return ctx;
+    });
+
+    //Dictionary training, 0 samples disables training
+    private final int dictionarySampleCount;
+    private final int dictionarySize;
+    private final List<byte[]> samples = new ArrayList<>();
+    private long sampleBytes;
+    private final AtomicBoolean trainingDone = new AtomicBoolean();
+    private volatile Thread trainer;
+    private MetadataStore metadataStore;
+
+    private volatile long cdict;
+    private volatile long ddict;
+    private int dictionaryId;
 
     public ZSTDCompressor(int level) {
+        this(level, 0, 0);
+    }
+
+    public ZSTDCompressor(int level, int dictionarySampleCount, int dictionarySize) {
         this.level = level;
+        this.dictionarySampleCount = dictionarySampleCount;
+        this.dictionarySize = dictionarySize;
+    }
+
+    @Override
+    public void attachMetadataStore(MetadataStore store) {
+        this.metadataStore = store;
+        var dict = store.get(DICTIONARY_METADATA_ID);
+        if (dict != null) {
+            var buffer = MemoryUtil.memAlloc(dict.length);
+            buffer.put(dict).rewind();
+            this.loadDictionary(buffer);
+            MemoryUtil.memFree(buffer);
+        }
+        if (this.cdict != 0 || this.dictionarySampleCount <= 0) {
+            this.trainingDone.set(true);
+        }
+    }
+
+    //The zstd dictionary objects copy the dictionary content so the buffer can be freed after
+    private void loadDictionary(ByteBuffer dict) {
+        this.dictionaryId = ZDICT_getDictID(dict);
+        this.ddict = ZSTD_createDDict(dict);
+        this.cdict = ZSTD_createCDict(dict, this.level);
+    }
+
+    private void collectSample(ByteBuffer saveData) {
+        synchronized (this.samples) {
+            if (this.samples.size() >= this.dictionarySampleCount || this.sampleBytes >= MAX_SAMPLE_BYTES) {
+                return;
+            }
+            byte[] sample = new byte[saveData.remaining()];
+            saveData.get(saveData.position(), sample);
+            this.samples.add(sample);
+            this.sampleBytes += sample.length;
+            if (this.samples.size() < this.dictionarySampleCount && this.sampleBytes < MAX_SAMPLE_BYTES) {
+                return;
+            }
+        }
+        //Only 1 thread reaches here, the one that added the last sample, training takes seconds so it runs on its own
+        // thread and sections keep being compressed without a dictionary until it finishes
+        var trainer = new Thread(this::trainDictionary);
+        trainer.setName("ZSTD dictionary trainer");
+        trainer.setDaemon(true);
+        this.trainer = trainer;
+        trainer.start();
+    }
+
+    private void trainDictionary() {
+        var samplesBuffer = MemoryUtil.memAlloc((int) this.sampleBytes);
+        var sizes = MemoryUtil.memAllocPointer(this.samples.size());
+        var dictBuffer = MemoryUtil.memAlloc(this.dictionarySize);
+        try {
+            for (var sample : this.samples) {
+                samplesBuffer.put(sample);
+                sizes.put(sample.length);
+            }
+            samplesBuffer.flip();
+            sizes.flip();
+            long size = ZDICT_trainFromBuffer(dictBuffer, samplesBuffer, sizes);
+            if (ZDICT_isError(size)) {
+                System.err.println("Failed to train zstd dictionary, continuing without one: " + ZDICT_getErrorName(size));
+                return;
+            }
+            dictBuffer.limit((int) size);
+            //Persist before use so that any data compressed with the dictionary is always decompressable
+            this.metadataStore.put(DICTIONARY_METADATA_ID, dictBuffer);
+            this.loadDictionary(dictBuffer);
+            System.out.println("Trained zstd dictionary of " + size + " bytes from " + this.samples.size() + " samples");
+        } finally {
+            MemoryUtil.memFree(samplesBuffer);
+            MemoryUtil.memFree(sizes);
+            MemoryUtil.memFree(dictBuffer);
+            synchronized (this.samples) {
+                this.samples.clear();
+            }
+            this.trainingDone.set(true);
+        }
     }
 
     @Override
     public ByteBuffer compress(ByteBuffer saveData) {
-        ByteBuffer compressedData  = MemoryUtil.memAlloc((int)ZSTD_COMPRESSBOUND(saveData.remaining()));
-        long compressedSize = ZSTD_compress(compressedData, saveData, this.level);
-        compressedData.limit((int) compressedSize);
-        compressedData.rewind();
+        if (!this.trainingDone.get() && this.metadataStore != null) {
+            this.collectSample(saveData);
+        }
+        var ctx = this.contexts.get();
+        //Compress into the reusable scratch then copy out to an exactly sized buffer
+        var scratch = ctx.getScratch(ZSTD_COMPRESSBOUND(saveData.remaining()));
+        long cdict = this.cdict;
+        long compressedSize;
+        if (cdict != 0) {
+            compressedSize = ZSTD_compress_usingCDict(ctx.cctx, scratch, saveData, cdict);
+        } else {
+            compressedSize = ZSTD_compressCCtx(ctx.cctx, scratch, saveData, this.level);
+        }
+        if (ZSTD_isError(compressedSize)) {
+            throw new IllegalStateException("Failed to compress section data: " + ZSTD_getErrorName(compressedSize));
+        }
+        scratch.limit((int) compressedSize);
+        ByteBuffer compressedData = MemoryUtil.memAlloc((int) compressedSize);
+        MemoryUtil.memCopy(scratch, compressedData);
         return compressedData;
     }
 
+    private long decompress0(ByteBuffer saveData, ByteBuffer into) {
+        var ctx = this.contexts.get();
+        int frameDict = ZSTD_getDictID_fromFrame(saveData);
+        long size;
+        if (frameDict == 0) {
+            size = ZSTD_decompressDCtx(ctx.dctx, into, saveData);
+        } else {
+            if (this.ddict == 0 || frameDict != this.dictionaryId) {
+                throw new IllegalStateException("Section data compressed with unknown zstd dictionary " + frameDict);
+            }
+            size = ZSTD_decompress_usingDDict(ctx.dctx, into, saveData, this.ddict);
+        }
+        if (ZSTD_isError(size)) {
+            throw new IllegalStateException("Failed to decompress section data: " + ZSTD_getErrorName(size));
+        }
+        return size;
+    }
+
     @Override
     public ByteBuffer decompress(ByteBuffer saveData) {
-        var decompressed = MemoryUtil.memAlloc(32*32*32*8*2);
-        long size = ZSTD_decompress(decompressed, saveData);
-        decompressed.limit((int) size);
+        //Size the output from the frame header when its present
+        long contentSize = ZSTD_getFrameContentSize(saveData);
+        if (contentSize == ZSTD_CONTENTSIZE_ERROR) {
+            throw new IllegalStateException("Section data is not a valid zstd frame");
+        }
+        if (contentSize == ZSTD_CONTENTSIZE_UNKNOWN || contentSize > MAX_DECOMPRESSED_SIZE) {
+            contentSize = MAX_DECOMPRESSED_SIZE;
+        }
+        var decompressed = MemoryUtil.memAlloc((int) contentSize);
+        try {
+            long size = this.decompress0(saveData, decompressed);
+            decompressed.limit((int) size);
+        } catch (Throwable e) {
+            MemoryUtil.memFree(decompressed);
+            throw e;
+        }
         return decompressed;
     }
 
     @Override
-    public void close() {
+    public ByteBuffer decompress(ByteBuffer saveData, ByteBuffer into) {
+        into.clear();
+        long size = this.decompress0(saveData, into);
+        into.limit((int) size);
+        return into;
+    }
 
+    @Override
+    public void close() {
+        //The trainer writes to the metadata store and creates the dictionaries, so it must finish first
+        var trainer = this.trainer;
+        if (trainer != null) {
+            try {
+                trainer.join();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        Contexts ctx;
+        while ((ctx = this.allContexts.poll()) != null) {
+            ctx.free();
+        }
+        if (this.cdict != 0) {
+            ZSTD_freeCDict(this.cdict);
+            this.cdict = 0;
+        }
+        if (this.ddict != 0) {
+            ZSTD_freeDDict(this.ddict);
+            this.ddict = 0;
+        }
     }
 
     public static class Config extends CompressorConfig {
         public int compressionLevel;
+        //Number of saved sections to sample for training a compression dictionary, 0 disables dictionary training
+        public int dictionarySampleCount = 0;
+        public int dictionarySize = 64*1024;
 
         @Override
         public StorageCompressor build(ConfigBuildCtx ctx) {
-            return new ZSTDCompressor(this.compressionLevel);
+            return new ZSTDCompressor(this.compressionLevel, this.dictionarySampleCount, this.dictionarySize);
         }
 
         public static String getConfigTypeName() {
@@ -13,6 +13,7 @@ import org.apache.commons.lang3.stream.Streams;
 import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 public class MemoryStorageBackend extends StorageBackend {
     private final Long2ObjectMap<ByteBuffer>[] maps;
@@ -29,8 +30,30 @@ public class MemoryStorageBackend extends StorageBackend {
         }
     }
 
+    private int getMapIndex(long key) {
+        return (int) (RandomSeed.mixStafford13(RandomSeed.mixStafford13(key)^key)&(this.maps.length-1));
+    }
+
     private Long2ObjectMap<ByteBuffer> getMap(long key) {
-        return this.maps[(int) (RandomSeed.mixStafford13(RandomSeed.mixStafford13(key)^key)&(this.maps.length-1))];
+        return this.maps[this.getMapIndex(key)];
+    }
+
+    //Groups the batch indices by the map slice they land in so that each slice lock is only taken once per batch
+    private int[] groupBySlice(long[] keys, int[] sliceStarts) {
+        int[] slices = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            slices[i] = this.getMapIndex(keys[i]);
+            sliceStarts[slices[i]+1]++;
+        }
+        for (int i = 1; i < sliceStarts.length; i++) {
+            sliceStarts[i] += sliceStarts[i-1];
+        }
+        int[] order = new int[keys.length];
+        int[] fill = Arrays.copyOf(sliceStarts, sliceStarts.length-1);
+        for (int i = 0; i < keys.length; i++) {
+            order[fill[slices[i]]++] = i;
+        }
+        return order;
     }
 
     @Override
@@ -61,6 +84,57 @@ public class MemoryStorageBackend extends StorageBackend {
         }
     }
 
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        int[] sliceStarts = new int[this.maps.length+1];
+        int[] order = this.groupBySlice(keys, sliceStarts);
+        for (int slice = 0; slice < this.maps.length; slice++) {
+            if (sliceStarts[slice] == sliceStarts[slice+1]) {
+                continue;
+            }
+            var map = this.maps[slice];
+            synchronized (map) {
+                for (int i = sliceStarts[slice]; i < sliceStarts[slice+1]; i++) {
+                    int idx = order[i];
+                    var data = map.get(keys[idx]);
+                    if (data != null) {
+                        var cpy = MemoryUtil.memAlloc(data.remaining());
+                        MemoryUtil.memCopy(data, cpy);
+                        out[idx] = cpy;
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        int[] sliceStarts = new int[this.maps.length+1];
+        int[] order = this.groupBySlice(keys, sliceStarts);
+        for (int slice = 0; slice < this.maps.length; slice++) {
+            if (sliceStarts[slice] == sliceStarts[slice+1]) {
+                continue;
+            }
+            var map = this.maps[slice];
+            synchronized (map) {
+                for (int i = sliceStarts[slice]; i < sliceStarts[slice+1]; i++) {
+                    int idx = order[i];
+                    var cpy = MemoryUtil.memAlloc(data[idx].remaining());
+                    MemoryUtil.memCopy(data[idx], cpy);
+                    var old = map.put(keys[idx], cpy);
+                    if (old != null) {
+                        MemoryUtil.memFree(old);
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public void deleteSectionData(long key) {
         var map = this.getMap(key);
@@ -72,6 +146,23 @@ public class MemoryStorageBackend extends StorageBackend {
         }
     }
 
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        for (var map : this.maps) {
+            synchronized (map) {
+                for (var entry : map.long2ObjectEntrySet()) {
+                    if (!isKeyInRange(entry.getLongKey(), minKey, maxKey)) {
+                        continue;
+                    }
+                    if (!visitor.visit(entry.getLongKey(), entry.getValue().asReadOnlyBuffer().order(entry.getValue().order()))) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
     @Override
     public void putIdMapping(int id, ByteBuffer data) {
         synchronized (this.idMappings) {
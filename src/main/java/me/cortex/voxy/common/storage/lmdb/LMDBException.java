@@ -0,0 +1,13 @@
+package me.cortex.voxy.common.storage.lmdb;
+
+import static org.lwjgl.util.lmdb.LMDB.mdb_strerror;
+
+//Carries the lmdb return code so callers can react to specific errors (e.g. MDB_MAP_FULL) without parsing the message
+public class LMDBException extends IllegalStateException {
+    public final int code;
+
+    public LMDBException(int code) {
+        super("Code: " + code + " msg: " + mdb_strerror(code));
+        this.code = code;
+    }
+}
@@ -3,6 +3,7 @@ package me.cortex.voxy.common.storage.lmdb;
 import org.lwjgl.PointerBuffer;
 import org.lwjgl.system.MemoryStack;
 import org.lwjgl.util.lmdb.MDBEnvInfo;
+import org.lwjgl.util.lmdb.MDBStat;
 
 import java.nio.IntBuffer;
 
@@ -47,7 +48,7 @@ public class LMDBInterface {
 
     public static void E(int rc) {
         if (rc != MDB_SUCCESS) {
-            throw new IllegalStateException("Code: " + rc + " msg: " + mdb_strerror(rc));
+            throw new LMDBException(rc);
         }
     }
 
@@ -103,6 +104,17 @@ public class LMDBInterface {
         }
     }
 
+    //Size of the used portion of the map, this is the high water mark of allocated pages
+    public long getUsedSize() {
+        try (MemoryStack stack = MemoryStack.stackPush()) {
+            MDBEnvInfo info = MDBEnvInfo.calloc(stack);
+            E(mdb_env_info(this.env, info));
+            MDBStat stat = MDBStat.calloc(stack);
+            E(mdb_env_stat(this.env, stat));
+            return (info.me_last_pgno()+1)*stat.ms_psize();
+        }
+    }
+
     public class Database {
         private final int dbi;
         public Database(String name, int flags) {
@@ -10,79 +10,105 @@ import org.lwjgl.util.lmdb.MDBVal;
 import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Supplier;
 
 import static org.lwjgl.util.lmdb.LMDB.*;
 import static org.lwjgl.util.lmdb.LMDB.MDB_NOTFOUND;
 
 public class LMDBStorageBackend extends StorageBackend {
-    private static final long GROW_SIZE = 1<<25;//Grow by 33 mb each time
+    public static final long DEFAULT_INITIAL_MAP_SIZE = 1<<26;
+    public static final double DEFAULT_GROWTH_FACTOR = 1.5;
+    //Proactively grow once the used size passes this fraction of the map
+    private static final double GROW_THRESHOLD = 0.8;
+    //Cap on a single growth step, on some platforms the file is sized to the map so dont overshoot by too much
+    private static final long MAX_GROW_STEP = 1L<<31;
+    //Querying the used size is two native env queries, so its only sampled every this many writes (power of 2), a
+    // write that fills the map in between is caught by the map full retry
+    private static final int GROW_CHECK_INTERVAL = 64;
 
-    private final AtomicInteger accessingCounts = new AtomicInteger();
-    private final ReentrantLock resizeLock = new ReentrantLock();
+    //Transactions hold the read lock, resizing holds the write lock as lmdb requires no active transactions
+    // within the process while the map size is being changed
+    private final ReentrantReadWriteLock resizeLock = new ReentrantReadWriteLock();
+    private final double growthFactor;
+    private volatile long mapSize;
+    private final AtomicInteger writeCount = new AtomicInteger();
 
     private final LMDBInterface dbi;
     private final LMDBInterface.Database sectionDatabase;
     private final LMDBInterface.Database idMappingDatabase;
     public LMDBStorageBackend(String file) {
+        this(file, DEFAULT_INITIAL_MAP_SIZE, DEFAULT_GROWTH_FACTOR);
+    }
+
+    public LMDBStorageBackend(String file, long initialMapSize, double growthFactor) {
+        if (growthFactor <= 1) {
+            throw new IllegalArgumentException("Growth factor must be greater than 1");
+        }
+        this.growthFactor = growthFactor;
         this.dbi = new LMDBInterface.Builder()
                 .setMaxDbs(2)
                 .open(file, MDB_NOSUBDIR)//MDB_NOLOCK (IF I DO THIS, must sync the db manually)// TODO: THIS
                 .fetch();
-        this.dbi.setMapSize(GROW_SIZE);
+        //If the existing data is larger than the requested size lmdb will clamp it up to the used size
+        this.dbi.setMapSize(initialMapSize);
+        this.mapSize = this.dbi.getMapSize();
         this.sectionDatabase = this.dbi.createDb("world_sections");
         this.idMappingDatabase = this.dbi.createDb("id_mapping");
     }
 
-    private void growEnv() {
-        long size = this.dbi.getMapSize() + GROW_SIZE;
-        System.out.println("Growing DBI env size to: " + size + " bytes");
-        this.dbi.setMapSize(size);
+    //Grows the map geometrically if it was observed to be full or is getting close to full, expectedSize is the
+    // map size at the time of observation so that concurrent growth requests only resize once
+    private void growIfNeeded(long expectedSize, boolean full) {
+        if (!full && this.dbi.getUsedSize() < expectedSize*GROW_THRESHOLD) {
+            return;
+        }
+        var lock = this.resizeLock.writeLock();
+        lock.lock();
+        try {
+            long current = this.dbi.getMapSize();
+            if (current != expectedSize) {
+                return;//Someone else already resized the map
+            }
+            long step = Math.min(MAX_GROW_STEP, Math.max((long) (current*(this.growthFactor-1)), 1<<20));
+            long size = current + step;
+            System.out.println("Growing DBI env size to: " + size + " bytes");
+            this.dbi.setMapSize(size);
+            this.mapSize = this.dbi.getMapSize();
+        } finally {
+            lock.unlock();
+        }
     }
 
-    //TODO: try optimize this hellscape of spagetti locking
+    //Write transaction which grows the map when needed, if the map fills up mid transaction, the transaction is
+    // aborted, the map is grown and the transaction retried
     private <T> T resizingTransaction(Supplier<T> transaction) {
         while (true) {
+            long size = this.mapSize;
+            if ((this.writeCount.incrementAndGet()&(GROW_CHECK_INTERVAL-1)) == 0) {
+                this.growIfNeeded(size, false);
+            }
             try {
                 return this.synchronizedTransaction(transaction);
-            } catch (Throwable e) {
-                if (e.getMessage().startsWith("Code: -30792")) {
-                    if (this.resizeLock.tryLock()) {
-                        //We must wait until all the other transactions have finished before we can resize
-                        while (this.accessingCounts.get() != 0) {
-                            Thread.onSpinWait();
-                        }
-
-                        this.growEnv();
-
-                        this.resizeLock.unlock();
-                    }
-                } else {
+            } catch (LMDBException e) {
+                if (e.code != MDB_MAP_FULL) {
                     throw e;
                 }
+                this.growIfNeeded(size, true);
             }
         }
     }
 
     private <T> T synchronizedTransaction(Supplier<T> transaction) {
+        var lock = this.resizeLock.readLock();
+        lock.lock();
         try {
-            this.accessingCounts.getAndAdd(1);
-            //Check if its locked, if it is locked then need to release the access, wait till resize is finished then
-            while (this.resizeLock.isLocked()) {
-                this.accessingCounts.getAndAdd(-1);
-                while (this.resizeLock.isLocked()) {
-                    Thread.onSpinWait();
-                }
-                this.accessingCounts.getAndAdd(1);
-            }
             return transaction.get();
         } finally {
-            this.accessingCounts.getAndAdd(-1);
+            lock.unlock();
         }
     }
 
-    //TODO: make batch get and updates
     public ByteBuffer getSectionData(long key) {
         return this.synchronizedTransaction(() -> this.sectionDatabase.transaction(MDB_RDONLY, transaction->{
             var buff = transaction.stack.malloc(8);
@@ -97,6 +123,17 @@ public class LMDBStorageBackend extends StorageBackend {
         }));
     }
 
+    //Hands the visitor a read only view of the memory mapped value, this view is only valid within the read transaction
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return this.synchronizedTransaction(() -> this.sectionDatabase.transaction(MDB_RDONLY, transaction->{
+            var buff = transaction.stack.malloc(8);
+            buff.putLong(0, key);
+            var bb = transaction.get(buff);
+            return visitor.visit(bb == null ? null : bb.asReadOnlyBuffer().order(bb.order()));
+        }));
+    }
+
     //TODO: pad data to like some alignemnt so that when the section gets saved or updated
     // it can use the same allocation
     public void setSectionData(long key, ByteBuffer data) {
@@ -108,8 +145,55 @@ public class LMDBStorageBackend extends StorageBackend {
         }));
     }
 
+    //Reads all the keys within a single read transaction
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        try {
+            this.synchronizedTransaction(() -> this.sectionDatabase.transaction(MDB_RDONLY, transaction->{
+                var keyBuff = transaction.stack.malloc(8);
+                for (int i = 0; i < keys.length; i++) {
+                    keyBuff.putLong(0, keys[i]);
+                    var bb = transaction.get(keyBuff);
+                    if (bb == null) {
+                        continue;
+                    }
+                    var copy = MemoryUtil.memAlloc(bb.remaining());
+                    MemoryUtil.memCopy(bb, copy);
+                    out[i] = copy;
+                }
+                return null;
+            }));
+        } catch (Throwable e) {
+            for (var buffer : out) {
+                if (buffer != null) {
+                    MemoryUtil.memFree(buffer);
+                }
+            }
+            throw e;
+        }
+        return out;
+    }
+
+    //Writes all the keys within a single write transaction, if the map fills up the entire batch is aborted,
+    // the env is grown and the batch is retried
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        this.resizingTransaction(() -> this.sectionDatabase.transaction(transaction->{
+            var keyBuff = transaction.stack.malloc(8);
+            for (int i = 0; i < keys.length; i++) {
+                keyBuff.putLong(0, keys[i]);
+                transaction.put(keyBuff, data[i], 0);
+            }
+            return null;
+        }));
+    }
+
     public void deleteSectionData(long key) {
-        this.synchronizedTransaction(() -> this.sectionDatabase.transaction(transaction->{
+        this.resizingTransaction(() -> this.sectionDatabase.transaction(transaction->{
             var keyBuff = transaction.stack.malloc(8);
             keyBuff.putLong(0, key);
             transaction.del(keyBuff);
@@ -117,6 +201,35 @@ public class LMDBStorageBackend extends StorageBackend {
         }));
     }
 
+    //Walks the whole database with a cursor in a single read transaction, the keys are stored in native byte order so
+    // the database order doesnt follow the key order and the range cant be seeked to, it is filtered instead
+    //NOTE: the resize lock is held for the whole scan, so the map cant grow until the scan finishes
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        return this.synchronizedTransaction(() -> this.sectionDatabase.transaction(MDB_RDONLY, transaction->{
+            try (var cursor = transaction.createCursor()) {
+                var keyPtr = MDBVal.malloc(transaction.stack);
+                var valPtr = MDBVal.malloc(transaction.stack);
+                while (cursor.get(MDB_NEXT, keyPtr, valPtr) != MDB_NOTFOUND) {
+                    long key = keyPtr.mv_data().getLong(0);
+                    if (!isKeyInRange(key, minKey, maxKey)) {
+                        continue;
+                    }
+                    var data = Objects.requireNonNull(valPtr.mv_data());
+                    if (!visitor.visit(key, data.asReadOnlyBuffer().order(data.order()))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }));
+    }
+
+    @Override
+    public boolean hasOrderedScans() {
+        return true;
+    }
+
     public synchronized void putIdMapping(int id, ByteBuffer data) {
         this.resizingTransaction(()->this.idMappingDatabase.transaction(transaction->{
             var keyBuff = transaction.stack.malloc(4);
@@ -159,9 +272,12 @@ public class LMDBStorageBackend extends StorageBackend {
     }
 
     public static class Config extends StorageConfig {
+        public long initialMapSize = DEFAULT_INITIAL_MAP_SIZE;
+        public double growthFactor = DEFAULT_GROWTH_FACTOR;
+
         @Override
         public StorageBackend build(ConfigBuildCtx ctx) {
-            return new LMDBStorageBackend(ctx.ensurePathExists(ctx.substituteString(ctx.resolvePath())));
+            return new LMDBStorageBackend(ctx.ensurePathExists(ctx.substituteString(ctx.resolvePath())), this.initialMapSize, this.growthFactor);
         }
 
         public static String getConfigTypeName() {
@@ -0,0 +1,167 @@
+package me.cortex.voxy.common.storage.log;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+//A memory mapped append only segment file of the log
+// record layout: int (payload length+1, 0 marks the end of the segment), int crc32c of the rest of the record,
+// byte record type, long key, payload
+class LogSegment {
+    static final int HEADER_SIZE = 17;
+
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            var unsafeClass = Class.forName("sun.misc.Unsafe");
+            var field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (Exception e) {
+            System.err.println("Unable to explicitly unmap log segments, unmapping is left to the gc: " + e);
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    final int id;
+    private final Path path;
+    private final MappedByteBuffer buffer;
+    final long address;
+    //End of the written records, guarded by the backends append lock
+    int end;
+    //Bytes of records in this segment that are still referenced by the index, guarded by the backends index lock
+    long liveBytes;
+
+    private LogSegment(int id, Path path, MappedByteBuffer buffer) {
+        this.id = id;
+        this.path = path;
+        this.buffer = buffer;
+        this.buffer.order(ByteOrder.LITTLE_ENDIAN);
+        this.address = MemoryUtil.memAddress(buffer);
+    }
+
+    static LogSegment open(Path path, int id, int size) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            //Mapping past the end of the file grows it, the new space is zero filled which marks the end of the records
+            long mapSize = Math.max(channel.size(), size);
+            return new LogSegment(id, path, channel.map(FileChannel.MapMode.READ_WRITE, 0, mapSize));
+        }
+    }
+
+    int capacity() {
+        return this.buffer.capacity();
+    }
+
+    int payloadLength(int offset) {
+        return this.buffer.getInt(offset)-1;
+    }
+
+    byte type(int offset) {
+        return this.buffer.get(offset+8);
+    }
+
+    long key(int offset) {
+        return this.buffer.getLong(offset+9);
+    }
+
+    //View of the record payload in the byte order section data is written in
+    ByteBuffer payload(int offset, int length) {
+        return this.buffer.slice(offset+HEADER_SIZE, length).order(ByteOrder.nativeOrder());
+    }
+
+    private int checksum(int offset, int length) {
+        var crc = new CRC32C();
+        crc.update(this.buffer.slice(offset+8, 9+length));
+        return (int) crc.getValue();
+    }
+
+    void write(int offset, byte type, long key, ByteBuffer payload) {
+        int length = payload == null ? 0 : payload.remaining();
+        this.buffer.put(offset+8, type);
+        this.buffer.putLong(offset+9, key);
+        if (length != 0) {
+            MemoryUtil.memCopy(MemoryUtil.memAddress(payload), this.address+offset+HEADER_SIZE, length);
+        }
+        this.buffer.putInt(offset+4, this.checksum(offset, length));
+        this.buffer.putInt(offset, length+1);
+    }
+
+    //Returns the payload length of the record at the offset, or -1 if there is no complete and intact record there
+    int validRecordLength(int offset, byte maxType) {
+        if (offset + HEADER_SIZE > this.capacity()) {
+            return -1;
+        }
+        int length = this.payloadLength(offset);
+        if (length < 0 || length > this.capacity() - offset - HEADER_SIZE) {
+            return -1;
+        }
+        byte type = this.type(offset);
+        if (type < 0 || type > maxType) {
+            return -1;
+        }
+        if (this.buffer.getInt(offset+4) != this.checksum(offset, length)) {
+            return -1;
+        }
+        return length;
+    }
+
+    //Finds the end of the records without validating them, used for segments that are already covered by a checkpoint
+    int findEnd() {
+        int offset = 0;
+        while (offset + HEADER_SIZE <= this.capacity()) {
+            int length = this.payloadLength(offset);
+            if (length < 0 || length > this.capacity() - offset - HEADER_SIZE) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        return offset;
+    }
+
+    //Zeros everything past the offset so that partially written or stale records are never read back
+    boolean truncate(int offset) {
+        if (offset + 4 <= this.capacity() && this.buffer.getInt(offset) != 0) {
+            MemoryUtil.memSet(this.address+offset, 0, this.capacity()-offset);
+            return true;
+        }
+        return false;
+    }
+
+    void force() {
+        this.buffer.force();
+    }
+
+    void unmapAndDelete() {
+        this.unmap();
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException e) {
+            //It will be compacted again and deleted on a later run
+            System.err.println("Failed to delete log segment " + this.path + ": " + e);
+        }
+    }
+
+    void unmap() {
+        if (INVOKE_CLEANER != null) {
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, this.buffer);
+            } catch (Exception e) {
+                System.err.println("Failed to unmap log segment " + this.path + ": " + e);
+            }
+        }
+    }
+}
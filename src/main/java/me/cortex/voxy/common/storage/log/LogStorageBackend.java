@@ -0,0 +1,679 @@
+package me.cortex.voxy.common.storage.log;
+
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
+import me.cortex.voxy.common.storage.config.StorageConfig;
+import org.lwjgl.system.MemoryUtil;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32C;
+
+//Pure java append only storage backend, every write appends a record to the active memory mapped segment file and
+// updates an in memory key to record location index, the index is checkpointed to disk on flush so startup only needs
+// to load the checkpoint and replay the records written after it
+//A background thread compacts sealed segments that are mostly dead records by rewriting their live records into the
+// active segment and deleting the file
+//Delete tombstones are indexed like any other record and are carried forward by compaction while an older segment
+// exists, so that a full log replay (if the checkpoint is lost) cant bring back a deleted section from an older record
+public class LogStorageBackend extends StorageBackend {
+    private static final byte TYPE_SECTION = 0;
+    private static final byte TYPE_DELETE = 1;
+    private static final byte TYPE_ID_MAPPING = 2;
+
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "index.ckpt";
+    private static final long CHECKPOINT_MAGIC = 0x564f58594c4f4731L;
+    private static final int CHECKPOINT_VERSION = 2;
+    private static final long COMPACTION_INTERVAL_MS = 5000;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final double compactionThreshold;
+
+    private final ConcurrentHashMap<Integer, LogSegment> segments = new ConcurrentHashMap<>();
+    //Held for reading while accessing segment memory, held for writing when unmapping a segment
+    private final ReentrantReadWriteLock segmentLock = new ReentrantReadWriteLock();
+    //Serializes appends, always acquired before the index lock
+    private final Object appendLock = new Object();
+    private volatile LogSegment active;
+    //Segments with appended records that have not been forced to disk, guarded by the append lock
+    private final Set<LogSegment> dirtySegments = new HashSet<>();
+
+    private final Object indexLock = new Object();
+    private final Long2LongOpenHashMap sectionIndex = new Long2LongOpenHashMap();
+    private final Int2LongOpenHashMap idMappingIndex = new Int2LongOpenHashMap();
+    //Location of the latest delete record of deleted sections
+    private final Long2LongOpenHashMap tombstoneIndex = new Long2LongOpenHashMap();
+
+    //The index is streamed to the checkpoint through this, guarded by the checkpoint monitor
+    private final ByteBuffer checkpointChunk = ByteBuffer.allocate(1<<16).order(ByteOrder.LITTLE_ENDIAN);
+
+    private volatile boolean running = true;
+    private final Object compactionSignal = new Object();
+    private final Thread compactor;
+
+    public LogStorageBackend(String path, int segmentSize, double compactionThreshold) {
+        this.directory = Path.of(path);
+        this.segmentSize = segmentSize;
+        this.compactionThreshold = compactionThreshold;
+        this.sectionIndex.defaultReturnValue(-1);
+        this.idMappingIndex.defaultReturnValue(-1);
+        this.tombstoneIndex.defaultReturnValue(-1);
+
+        try {
+            this.openSegments();
+            long replayFrom = this.loadCheckpoint();
+            if (replayFrom == -1) {
+                this.sectionIndex.clear();
+                this.idMappingIndex.clear();
+                this.tombstoneIndex.clear();
+                replayFrom = location(this.getSortedSegmentIds().getInt(0), 0);
+            }
+            this.replay(replayFrom);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.computeLiveBytes();
+        this.checkpoint();
+
+        this.compactor = new Thread(this::compactionWorker);
+        this.compactor.setName("Log storage compactor");
+        this.compactor.setDaemon(true);
+        this.compactor.start();
+    }
+
+    private static long location(int segment, int offset) {
+        return (((long)segment)<<32)|(offset&0xFFFFFFFFL);
+    }
+
+    private static int segmentOf(long location) {
+        return (int) (location>>>32);
+    }
+
+    private static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    private Path segmentPath(int id) {
+        return this.directory.resolve(String.format("%08d", id) + SEGMENT_SUFFIX);
+    }
+
+    private IntArrayList getSortedSegmentIds() {
+        var ids = new IntArrayList(this.segments.keySet());
+        ids.sort(null);
+        return ids;
+    }
+
+    private void openSegments() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                var name = file.getFileName().toString();
+                if (!name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                int id;
+                try {
+                    id = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                this.segments.put(id, LogSegment.open(file, id, this.segmentSize));
+            }
+        }
+        if (this.segments.isEmpty()) {
+            this.segments.put(0, LogSegment.open(this.segmentPath(0), 0, this.segmentSize));
+        }
+        var ids = this.getSortedSegmentIds();
+        this.active = this.segments.get(ids.getInt(ids.size()-1));
+    }
+
+    //Loads the checkpointed index, returns the log location to replay from or -1 if there is no usable checkpoint
+    private long loadCheckpoint() throws IOException {
+        var file = this.directory.resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return -1;
+        }
+        var data = ByteBuffer.wrap(Files.readAllBytes(file)).order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            var crc = new CRC32C();
+            crc.update(data.slice(0, data.limit()-8));
+            if (data.getLong(data.limit()-8) != crc.getValue()) {
+                System.err.println("Log storage checkpoint is corrupt, replaying the entire log");
+                return -1;
+            }
+            if (data.getLong() != CHECKPOINT_MAGIC || data.getInt() != CHECKPOINT_VERSION) {
+                System.err.println("Unknown log storage checkpoint format, replaying the entire log");
+                return -1;
+            }
+            long replayFrom = data.getLong();
+            int sectionCount = data.getInt();
+            this.sectionIndex.ensureCapacity(sectionCount);
+            for (int i = 0; i < sectionCount; i++) {
+                long key = data.getLong();
+                long location = data.getLong();
+                if (!this.segments.containsKey(segmentOf(location))) {
+                    System.err.println("Log storage checkpoint references a missing segment, replaying the entire log");
+                    return -1;
+                }
+                this.sectionIndex.put(key, location);
+            }
+            int mappingCount = data.getInt();
+            for (int i = 0; i < mappingCount; i++) {
+                int id = data.getInt();
+                long location = data.getLong();
+                if (!this.segments.containsKey(segmentOf(location))) {
+                    System.err.println("Log storage checkpoint references a missing segment, replaying the entire log");
+                    return -1;
+                }
+                this.idMappingIndex.put(id, location);
+            }
+            int tombstoneCount = data.getInt();
+            for (int i = 0; i < tombstoneCount; i++) {
+                long key = data.getLong();
+                long location = data.getLong();
+                if (!this.segments.containsKey(segmentOf(location))) {
+                    System.err.println("Log storage checkpoint references a missing segment, replaying the entire log");
+                    return -1;
+                }
+                this.tombstoneIndex.put(key, location);
+            }
+            if (!this.segments.containsKey(segmentOf(replayFrom))) {
+                return -1;
+            }
+            return replayFrom;
+        } catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+            System.err.println("Log storage checkpoint is truncated, replaying the entire log");
+            return -1;
+        }
+    }
+
+    //Applies all the intact records from the location onward to the index, anything after the last intact record of a
+    // segment is from an interrupted write and is discarded
+    private void replay(long from) {
+        int fromSegment = segmentOf(from);
+        int replayed = 0;
+        for (int id : this.getSortedSegmentIds()) {
+            var segment = this.segments.get(id);
+            if (id < fromSegment) {
+                segment.end = segment.findEnd();
+                continue;
+            }
+            int offset = id == fromSegment ? offsetOf(from) : 0;
+            while (true) {
+                int length = segment.validRecordLength(offset, TYPE_ID_MAPPING);
+                if (length < 0) {
+                    break;
+                }
+                long key = segment.key(offset);
+                switch (segment.type(offset)) {
+                    case TYPE_SECTION -> {
+                        this.sectionIndex.put(key, location(id, offset));
+                        this.tombstoneIndex.remove(key);
+                    }
+                    case TYPE_DELETE -> {
+                        this.sectionIndex.remove(key);
+                        this.tombstoneIndex.put(key, location(id, offset));
+                    }
+                    case TYPE_ID_MAPPING -> this.idMappingIndex.put((int) key, location(id, offset));
+                }
+                offset += LogSegment.HEADER_SIZE + length;
+                replayed++;
+            }
+            if (segment.truncate(offset)) {
+                this.dirtySegments.add(segment);
+            }
+            segment.end = offset;
+        }
+        if (replayed != 0) {
+            System.out.println("Replayed " + replayed + " log storage records");
+        }
+    }
+
+    private int recordSize(long location) {
+        return LogSegment.HEADER_SIZE + this.segments.get(segmentOf(location)).payloadLength(offsetOf(location));
+    }
+
+    private void computeLiveBytes() {
+        for (long location : this.sectionIndex.values()) {
+            this.segments.get(segmentOf(location)).liveBytes += this.recordSize(location);
+        }
+        for (long location : this.idMappingIndex.values()) {
+            this.segments.get(segmentOf(location)).liveBytes += this.recordSize(location);
+        }
+        for (long location : this.tombstoneIndex.values()) {
+            this.segments.get(segmentOf(location)).liveBytes += this.recordSize(location);
+        }
+    }
+
+    //Appends a record to the active segment and returns its location, must hold the append lock
+    private long append(byte type, long key, ByteBuffer payload) {
+        int size = LogSegment.HEADER_SIZE + (payload == null ? 0 : payload.remaining());
+        if (size > this.segmentSize) {
+            throw new IllegalStateException("Record of " + size + " bytes does not fit in a log segment");
+        }
+        var segment = this.active;
+        if (segment.end + size > segment.capacity()) {
+            //Seal the current segment and start a new one
+            int id = segment.id + 1;
+            try {
+                segment = LogSegment.open(this.segmentPath(id), id, this.segmentSize);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            this.segments.put(id, segment);
+            this.active = segment;
+        }
+        int offset = segment.end;
+        segment.write(offset, type, key, payload);
+        segment.end = offset + size;
+        this.dirtySegments.add(segment);
+        return location(segment.id, offset);
+    }
+
+    //Points the index at the new location of a record, a delete record replaces the section record, must hold the
+    // append lock
+    private void updateIndex(byte type, long key, long location) {
+        synchronized (this.indexLock) {
+            long old;
+            long oldTombstone = -1;
+            if (type == TYPE_ID_MAPPING) {
+                old = this.idMappingIndex.put((int) key, location);
+            } else if (type == TYPE_DELETE) {
+                old = this.sectionIndex.remove(key);
+                oldTombstone = this.tombstoneIndex.put(key, location);
+            } else {
+                old = this.sectionIndex.put(key, location);
+                oldTombstone = this.tombstoneIndex.remove(key);
+            }
+            this.removeLiveRecord(old);
+            this.removeLiveRecord(oldTombstone);
+            this.segments.get(segmentOf(location)).liveBytes += this.recordSize(location);
+        }
+    }
+
+    //Must hold the index lock
+    private void removeLiveRecord(long location) {
+        if (location != -1) {
+            this.segments.get(segmentOf(location)).liveBytes -= this.recordSize(location);
+        }
+    }
+
+    //If a segment older than the given one still exists, must hold the append lock
+    private boolean hasOlderSegment(int id) {
+        for (int other : this.segments.keySet()) {
+            if (other < id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getLocation(long key) {
+        synchronized (this.indexLock) {
+            return this.sectionIndex.get(key);
+        }
+    }
+
+    @Override
+    public ByteBuffer getSectionData(long key) {
+        var lock = this.segmentLock.readLock();
+        lock.lock();
+        try {
+            long location = this.getLocation(key);
+            if (location == -1) {
+                return null;
+            }
+            var segment = this.segments.get(segmentOf(location));
+            int offset = offsetOf(location);
+            int length = segment.payloadLength(offset);
+            var data = MemoryUtil.memAlloc(length);
+            MemoryUtil.memCopy(segment.address + offset + LogSegment.HEADER_SIZE, MemoryUtil.memAddress(data), length);
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        //The segment cant be unmapped while the read lock is held so the mapped record can be visited directly
+        var lock = this.segmentLock.readLock();
+        lock.lock();
+        try {
+            long location = this.getLocation(key);
+            if (location == -1) {
+                return visitor.visit(null);
+            }
+            var segment = this.segments.get(segmentOf(location));
+            int offset = offsetOf(location);
+            return visitor.visit(segment.payload(offset, segment.payloadLength(offset)).asReadOnlyBuffer().order(ByteOrder.nativeOrder()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void setSectionData(long key, ByteBuffer data) {
+        synchronized (this.appendLock) {
+            this.updateIndex(TYPE_SECTION, key, this.append(TYPE_SECTION, key, data));
+        }
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        synchronized (this.appendLock) {
+            for (int i = 0; i < keys.length; i++) {
+                this.updateIndex(TYPE_SECTION, keys[i], this.append(TYPE_SECTION, keys[i], data[i]));
+            }
+        }
+    }
+
+    @Override
+    public void deleteSectionData(long key) {
+        synchronized (this.appendLock) {
+            if (this.getLocation(key) == -1) {
+                return;
+            }
+            this.updateIndex(TYPE_DELETE, key, this.append(TYPE_DELETE, key, null));
+        }
+    }
+
+    //Visits a snapshot of the index, records that get superseded during the scan are still readable since segments
+    // cant be unmapped while the read lock is held
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        var lock = this.segmentLock.readLock();
+        lock.lock();
+        try {
+            var keys = new LongArrayList();
+            var locations = new LongArrayList();
+            synchronized (this.indexLock) {
+                for (var entry : this.sectionIndex.long2LongEntrySet()) {
+                    if (isKeyInRange(entry.getLongKey(), minKey, maxKey)) {
+                        keys.add(entry.getLongKey());
+                        locations.add(entry.getLongValue());
+                    }
+                }
+            }
+            for (int i = 0; i < keys.size(); i++) {
+                long location = locations.getLong(i);
+                var segment = this.segments.get(segmentOf(location));
+                int offset = offsetOf(location);
+                if (!visitor.visit(keys.getLong(i), segment.payload(offset, segment.payloadLength(offset)).asReadOnlyBuffer().order(ByteOrder.nativeOrder()))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void putIdMapping(int id, ByteBuffer data) {
+        synchronized (this.appendLock) {
+            this.updateIndex(TYPE_ID_MAPPING, id, this.append(TYPE_ID_MAPPING, id, data));
+        }
+    }
+
+    @Override
+    public Int2ObjectOpenHashMap<byte[]> getIdMappingsData() {
+        var lock = this.segmentLock.readLock();
+        lock.lock();
+        try {
+            Int2LongOpenHashMap locations;
+            synchronized (this.indexLock) {
+                locations = new Int2LongOpenHashMap(this.idMappingIndex);
+            }
+            var out = new Int2ObjectOpenHashMap<byte[]>(locations.size());
+            for (var entry : locations.int2LongEntrySet()) {
+                long location = entry.getLongValue();
+                var segment = this.segments.get(segmentOf(location));
+                int offset = offsetOf(location);
+                var payload = segment.payload(offset, segment.payloadLength(offset));
+                byte[] bytes = new byte[payload.remaining()];
+                payload.get(bytes);
+                out.put(entry.getIntKey(), bytes);
+            }
+            return out;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    //Forces all appended records to disk then atomically replaces the checkpoint with a snapshot of the index
+    //The snapshot is streamed to the temporary file in chunks while the locks are held, it only replaces the checkpoint
+    // once the records it references have been forced
+    private synchronized void checkpoint() {
+        List<LogSegment> toForce;
+        var temp = this.directory.resolve(CHECKPOINT_FILE + ".tmp");
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var crc = new CRC32C();
+            var chunk = this.checkpointChunk;
+            chunk.clear();
+            synchronized (this.appendLock) {
+                toForce = new ArrayList<>(this.dirtySegments);
+                this.dirtySegments.clear();
+                long replayFrom = location(this.active.id, this.active.end);
+                synchronized (this.indexLock) {
+                    chunk.putLong(CHECKPOINT_MAGIC);
+                    chunk.putInt(CHECKPOINT_VERSION);
+                    chunk.putLong(replayFrom);
+                    chunk.putInt(this.sectionIndex.size());
+                    for (var entry : this.sectionIndex.long2LongEntrySet()) {
+                        this.reserveCheckpointChunk(channel, crc, 16);
+                        chunk.putLong(entry.getLongKey());
+                        chunk.putLong(entry.getLongValue());
+                    }
+                    this.reserveCheckpointChunk(channel, crc, 4);
+                    chunk.putInt(this.idMappingIndex.size());
+                    for (var entry : this.idMappingIndex.int2LongEntrySet()) {
+                        this.reserveCheckpointChunk(channel, crc, 12);
+                        chunk.putInt(entry.getIntKey());
+                        chunk.putLong(entry.getLongValue());
+                    }
+                    this.reserveCheckpointChunk(channel, crc, 4);
+                    chunk.putInt(this.tombstoneIndex.size());
+                    for (var entry : this.tombstoneIndex.long2LongEntrySet()) {
+                        this.reserveCheckpointChunk(channel, crc, 16);
+                        chunk.putLong(entry.getLongKey());
+                        chunk.putLong(entry.getLongValue());
+                    }
+                    this.writeCheckpointChunk(channel, crc);
+                }
+            }
+            for (var segment : toForce) {
+                segment.force();
+            }
+            chunk.putLong(crc.getValue());
+            this.writeCheckpointChunk(channel, null);
+            channel.force(true);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            Files.move(temp, this.directory.resolve(CHECKPOINT_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    //Writes out the checkpoint chunk if it doesnt have room for the bytes
+    private void reserveCheckpointChunk(FileChannel channel, CRC32C crc, int bytes) throws IOException {
+        if (this.checkpointChunk.remaining() < bytes) {
+            this.writeCheckpointChunk(channel, crc);
+        }
+    }
+
+    private void writeCheckpointChunk(FileChannel channel, CRC32C crc) throws IOException {
+        var chunk = this.checkpointChunk;
+        chunk.flip();
+        if (crc != null) {
+            crc.update(chunk.slice());
+        }
+        while (chunk.hasRemaining()) {
+            channel.write(chunk);
+        }
+        chunk.clear();
+    }
+
+    private void compactionWorker() {
+        while (this.running) {
+            synchronized (this.compactionSignal) {
+                try {
+                    this.compactionSignal.wait(COMPACTION_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            try {
+                LogSegment target;
+                while (this.running && (target = this.findCompactionTarget()) != null) {
+                    this.compact(target);
+                }
+            } catch (Exception e) {
+                System.err.println("Log storage compaction failed: " + e);
+            }
+        }
+    }
+
+    //Sealed segment with the lowest fraction of live data, if its below the compaction threshold
+    private LogSegment findCompactionTarget() {
+        var active = this.active;
+        LogSegment best = null;
+        double bestRatio = this.compactionThreshold;
+        synchronized (this.indexLock) {
+            for (var segment : this.segments.values()) {
+                if (segment == active) {
+                    continue;
+                }
+                double ratio = segment.end == 0 ? 0 : ((double) segment.liveBytes)/segment.end;
+                if (ratio < bestRatio) {
+                    bestRatio = ratio;
+                    best = segment;
+                }
+            }
+        }
+        return best;
+    }
+
+    private void compact(LogSegment target) {
+        int moved = 0;
+        int offset = 0;
+        int end;
+        synchronized (this.appendLock) {
+            end = target.end;
+        }
+        //The segment is sealed so its records are immutable and can be read without holding any lock
+        while (offset < end) {
+            int length = target.payloadLength(offset);
+            byte type = target.type(offset);
+            long key = target.key(offset);
+            long location = location(target.id, offset);
+            synchronized (this.appendLock) {
+                long current;
+                synchronized (this.indexLock) {
+                    current = switch (type) {
+                        case TYPE_ID_MAPPING -> this.idMappingIndex.get((int) key);
+                        case TYPE_DELETE -> this.tombstoneIndex.get(key);
+                        default -> this.sectionIndex.get(key);
+                    };
+                }
+                if (current == location) {
+                    if (type == TYPE_DELETE && !this.hasOlderSegment(target.id)) {
+                        //No older record of the section is left for the tombstone to hide
+                        synchronized (this.indexLock) {
+                            this.tombstoneIndex.remove(key);
+                            this.removeLiveRecord(location);
+                        }
+                    } else {
+                        this.updateIndex(type, key, this.append(type, key, type == TYPE_DELETE ? null : target.payload(offset, length)));
+                        moved++;
+                    }
+                }
+            }
+            offset += LogSegment.HEADER_SIZE + length;
+        }
+
+        synchronized (this) {
+            //The moved records must be durable and the checkpoint must not reference the segment before its deleted
+            this.checkpoint();
+            var lock = this.segmentLock.writeLock();
+            lock.lock();
+            try {
+                this.segments.remove(target.id);
+                target.unmapAndDelete();
+            } finally {
+                lock.unlock();
+            }
+        }
+        System.out.println("Compacted log segment " + target.id + ", moved " + moved + " live records");
+    }
+
+    @Override
+    public void flush() {
+        this.checkpoint();
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        synchronized (this.compactionSignal) {
+            this.compactionSignal.notifyAll();
+        }
+        try {
+            this.compactor.join();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+        this.checkpoint();
+        var lock = this.segmentLock.writeLock();
+        lock.lock();
+        try {
+            for (var segment : this.segments.values()) {
+                segment.unmap();
+            }
+            this.segments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static class Config extends StorageConfig {
+        //Size of each segment file
+        public int segmentSize = 1<<28;
+        //Sealed segments with less than this fraction of live records get compacted
+        public double compactionThreshold = 0.5;
+
+        @Override
+        public StorageBackend build(ConfigBuildCtx ctx) {
+            return new LogStorageBackend(ctx.ensurePathExists(ctx.substituteString(ctx.resolvePath())), this.segmentSize, this.compactionThreshold);
+        }
+
+        public static String getConfigTypeName() {
+            return "LogStructured";
+        }
+    }
+}
@@ -6,17 +6,81 @@ import me.cortex.voxy.common.storage.StorageCompressor;
 import me.cortex.voxy.common.storage.config.CompressorConfig;
 import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
 import me.cortex.voxy.common.storage.config.StorageConfig;
+import me.cortex.voxy.common.world.other.Mapper;
 import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
 
 //Compresses the section data
 public class CompressionStorageAdaptor extends DelegatingStorageAdaptor {
+    private static final int MAX_DECOMPRESSED_SIZE = 32*32*32*8*2;
+
     private final StorageCompressor compressor;
+    //Pool of decompression buffers for scoped reads, so that visiting doesnt allocate per call
+    private final ConcurrentLinkedDeque<ByteBuffer> decompressionBuffers = new ConcurrentLinkedDeque<>();
     public CompressionStorageAdaptor(StorageCompressor compressor, StorageBackend delegate) {
         super(delegate);
         this.compressor = compressor;
+        this.compressor.attachMetadataStore(createMetadataStore(delegate, 0, 1<<30));
+    }
+
+    public StorageCompressor getCompressor() {
+        return this.compressor;
+    }
+
+    public StorageBackend getDelegate() {
+        return this.delegate;
+    }
+
+    static boolean isMetadataId(int id) {
+        return (id>>>30) == Mapper.STORAGE_METADATA_TYPE;
+    }
+
+    //Metadata store backed by the ids of the given storage in the metadata id range [idBase, idBase+idCount)
+    static StorageCompressor.MetadataStore createMetadataStore(StorageBackend storage, int idBase, int idCount) {
+        var existing = new Int2ObjectOpenHashMap<byte[]>();
+        for (var entry : storage.getIdMappingsData().int2ObjectEntrySet()) {
+            int id = entry.getIntKey()&((1<<30)-1);
+            if (isMetadataId(entry.getIntKey()) && id >= idBase && id - idBase < idCount) {
+                existing.put(id - idBase, entry.getValue());
+            }
+        }
+        return new StorageCompressor.MetadataStore() {
+            @Override
+            public byte[] get(int id) {
+                synchronized (existing) {
+                    return existing.get(id);
+                }
+            }
+
+            @Override
+            public void put(int id, ByteBuffer data) {
+                if (id < 0 || id >= idCount) {
+                    throw new IllegalArgumentException("Metadata id " + id + " out of range");
+                }
+                var bytes = new byte[data.remaining()];
+                data.get(data.position(), bytes);
+                synchronized (existing) {
+                    existing.put(id, bytes);
+                }
+                storage.putIdMapping((idBase + id)|(Mapper.STORAGE_METADATA_TYPE<<30), data);
+            }
+        };
+    }
+
+    //Hide the compressor metadata from the mapper
+    @Override
+    public Int2ObjectOpenHashMap<byte[]> getIdMappingsData() {
+        var mappings = this.delegate.getIdMappingsData();
+        var iterator = mappings.int2ObjectEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            if (isMetadataId(iterator.next().getIntKey())) {
+                iterator.remove();
+            }
+        }
+        return mappings;
     }
 
     @Override
@@ -30,6 +94,39 @@ public class CompressionStorageAdaptor extends DelegatingStorageAdaptor {
         return decompressed;
     }
 
+    //Decompresses directly from the delegates scoped view into a pooled buffer
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return this.delegate.visitSectionData(key, data -> {
+            if (data == null) {
+                return visitor.visit(null);
+            }
+            var buffer = this.decompressionBuffers.poll();
+            if (buffer == null) {
+                buffer = MemoryUtil.memAlloc(MAX_DECOMPRESSED_SIZE);
+            }
+            try {
+                return visitor.visit(this.compressor.decompress(data, buffer));
+            } finally {
+                this.decompressionBuffers.add(buffer);
+            }
+        });
+    }
+
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        var buffer = this.decompressionBuffers.poll();
+        if (buffer == null) {
+            buffer = MemoryUtil.memAlloc(MAX_DECOMPRESSED_SIZE);
+        }
+        var decompressionBuffer = buffer;
+        try {
+            return this.delegate.scanSections(minKey, maxKey, (key, data) -> visitor.visit(key, this.compressor.decompress(data, decompressionBuffer)));
+        } finally {
+            this.decompressionBuffers.add(buffer);
+        }
+    }
+
     @Override
     public void setSectionData(long key, ByteBuffer data) {
         var cdata = this.compressor.compress(data);
@@ -37,8 +134,57 @@ public class CompressionStorageAdaptor extends DelegatingStorageAdaptor {
         MemoryUtil.memFree(cdata);
     }
 
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var datas = this.delegate.getSectionDataBatch(keys);
+        boolean success = false;
+        try {
+            for (int i = 0; i < datas.length; i++) {
+                var data = datas[i];
+                if (data == null) {
+                    continue;
+                }
+                datas[i] = this.compressor.decompress(data);
+                MemoryUtil.memFree(data);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                //Every entry is owned by this call, either already decompressed or still compressed (the failing one
+                // included)
+                for (var data : datas) {
+                    if (data != null) {
+                        MemoryUtil.memFree(data);
+                    }
+                }
+            }
+        }
+        return datas;
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        var cdatas = new ByteBuffer[data.length];
+        try {
+            for (int i = 0; i < data.length; i++) {
+                cdatas[i] = this.compressor.compress(data[i]);
+            }
+            this.delegate.setSectionDataBatch(keys, cdatas);
+        } finally {
+            for (var cdata : cdatas) {
+                if (cdata != null) {
+                    MemoryUtil.memFree(cdata);
+                }
+            }
+        }
+    }
+
     @Override
     public void close() {
+        ByteBuffer buffer;
+        while ((buffer = this.decompressionBuffers.poll()) != null) {
+            MemoryUtil.memFree(buffer);
+        }
         this.compressor.close();
         super.close();
     }
@@ -22,6 +22,11 @@ public class DelegatingStorageAdaptor extends StorageBackend {
         return this.delegate.getSectionData(key);
     }
 
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return this.delegate.visitSectionData(key, visitor);
+    }
+
     @Override
     public void setSectionData(long key, ByteBuffer data) {
         this.delegate.setSectionData(key, data);
@@ -32,6 +37,26 @@ public class DelegatingStorageAdaptor extends StorageBackend {
         this.delegate.deleteSectionData(key);
     }
 
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        return this.delegate.getSectionDataBatch(keys);
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        this.delegate.setSectionDataBatch(keys, data);
+    }
+
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        return this.delegate.scanSections(minKey, maxKey, visitor);
+    }
+
+    @Override
+    public boolean hasOrderedScans() {
+        return this.delegate.hasOrderedScans();
+    }
+
     @Override
     public void putIdMapping(int id, ByteBuffer data) {
         this.delegate.putIdMapping(id, data);
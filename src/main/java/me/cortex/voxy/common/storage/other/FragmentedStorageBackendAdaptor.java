@@ -1,6 +1,7 @@
 package me.cortex.voxy.common.storage.other;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import me.cortex.voxy.common.storage.StorageBackend;
@@ -12,17 +13,101 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 
-//Segments the section data into multiple dbs
+//Segments the section data into multiple dbs, operations that touch multiple fragments (batches, id mapping replication,
+// flush and close) are run on all the fragments in parallel
 public class FragmentedStorageBackendAdaptor extends StorageBackend {
     private final StorageBackend[] backends;
+    private final ExecutorService executor;
+    //Number of operations queued or running on each fragment
+    private final AtomicInteger[] queueDepths;
 
     public FragmentedStorageBackendAdaptor(StorageBackend... backends) {
         this.backends = backends;
         int len = backends.length;
-        if ((len&(len-1)) != (len-1)) {
+        if (len == 0 || (len&(len-1)) != 0) {
             throw new IllegalArgumentException("Backend count not a power of 2");
         }
+        this.queueDepths = new AtomicInteger[len];
+        for (int i = 0; i < len; i++) {
+            this.queueDepths[i] = new AtomicInteger();
+        }
+        var threadCounter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(len, runnable -> {
+            var thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName("Storage fragment worker #" + threadCounter.getAndIncrement());
+            return thread;
+        });
+    }
+
+    private void runTracked(int fragment, IntConsumer task) {
+        this.queueDepths[fragment].incrementAndGet();
+        try {
+            task.accept(fragment);
+        } finally {
+            this.queueDepths[fragment].decrementAndGet();
+        }
+    }
+
+    //Runs the task for each fragment in parallel and waits for all of them to finish, rethrowing the first failure
+    private void runParallel(IntArrayList fragments, IntConsumer task) {
+        if (fragments.size() == 1) {
+            this.runTracked(fragments.getInt(0), task);
+            return;
+        }
+        var futures = new CompletableFuture<?>[fragments.size()];
+        for (int i = 0; i < futures.length; i++) {
+            int fragment = fragments.getInt(i);
+            this.queueDepths[fragment].incrementAndGet();
+            futures[i] = CompletableFuture.runAsync(()->{
+                try {
+                    task.accept(fragment);
+                } finally {
+                    this.queueDepths[fragment].decrementAndGet();
+                }
+            }, this.executor);
+        }
+        try {
+            CompletableFuture.allOf(futures).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private IntArrayList allFragments() {
+        var fragments = new IntArrayList(this.backends.length);
+        for (int i = 0; i < this.backends.length; i++) {
+            fragments.add(i);
+        }
+        return fragments;
+    }
+
+    private static IntArrayList usedFragments(IntArrayList[] partitions) {
+        var fragments = new IntArrayList();
+        for (int i = 0; i < partitions.length; i++) {
+            if (partitions[i] != null) {
+                fragments.add(i);
+            }
+        }
+        return fragments;
+    }
+
+    public int[] getQueueDepths() {
+        int[] depths = new int[this.queueDepths.length];
+        for (int i = 0; i < depths.length; i++) {
+            depths[i] = this.queueDepths[i].get();
+        }
+        return depths;
     }
 
     private int getSegmentId(long key) {
@@ -35,25 +120,112 @@ public class FragmentedStorageBackendAdaptor extends StorageBackend {
 
     @Override
     public ByteBuffer getSectionData(long key) {
-        return this.backends[this.getSegmentId(key)].getSectionData(key);
+        int fragment = this.getSegmentId(key);
+        this.queueDepths[fragment].incrementAndGet();
+        try {
+            return this.backends[fragment].getSectionData(key);
+        } finally {
+            this.queueDepths[fragment].decrementAndGet();
+        }
+    }
+
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        int fragment = this.getSegmentId(key);
+        this.queueDepths[fragment].incrementAndGet();
+        try {
+            return this.backends[fragment].visitSectionData(key, visitor);
+        } finally {
+            this.queueDepths[fragment].decrementAndGet();
+        }
     }
 
     @Override
     public void setSectionData(long key, ByteBuffer data) {
-        this.backends[this.getSegmentId(key)].setSectionData(key, data);
+        this.runTracked(this.getSegmentId(key), fragment -> this.backends[fragment].setSectionData(key, data));
     }
 
     @Override
     public void deleteSectionData(long key) {
-        this.backends[this.getSegmentId(key)].deleteSectionData(key);
+        this.runTracked(this.getSegmentId(key), fragment -> this.backends[fragment].deleteSectionData(key));
     }
 
+    //Fragments are scanned one after another on the calling thread so the visitor doesnt need to be thread safe
     @Override
-    public void putIdMapping(int id, ByteBuffer data) {
-        //Replicate the mappings over all the dbs to mean the chance of recovery in case of corruption is 30x
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        for (int i = 0; i < this.backends.length; i++) {
+            boolean[] completed = new boolean[1];
+            this.runTracked(i, fragment -> completed[0] = this.backends[fragment].scanSections(minKey, maxKey, visitor));
+            if (!completed[0]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasOrderedScans() {
         for (var backend : this.backends) {
-            backend.putIdMapping(id, data);
+            if (!backend.hasOrderedScans()) {
+                return false;
+            }
         }
+        return true;
+    }
+
+    //Splits the batch into per fragment index lists, so each fragment gets a single batch call
+    private IntArrayList[] partitionKeys(long[] keys) {
+        var partitions = new IntArrayList[this.backends.length];
+        for (int i = 0; i < keys.length; i++) {
+            int segment = this.getSegmentId(keys[i]);
+            var partition = partitions[segment];
+            if (partition == null) {
+                partition = partitions[segment] = new IntArrayList();
+            }
+            partition.add(i);
+        }
+        return partitions;
+    }
+
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        var partitions = this.partitionKeys(keys);
+        //Each fragment writes to disjoint indices of the output
+        this.runParallel(usedFragments(partitions), segment -> {
+            var partition = partitions[segment];
+            long[] subKeys = new long[partition.size()];
+            for (int i = 0; i < subKeys.length; i++) {
+                subKeys[i] = keys[partition.getInt(i)];
+            }
+            var results = this.backends[segment].getSectionDataBatch(subKeys);
+            for (int i = 0; i < results.length; i++) {
+                out[partition.getInt(i)] = results[i];
+            }
+        });
+        return out;
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        var partitions = this.partitionKeys(keys);
+        this.runParallel(usedFragments(partitions), segment -> {
+            var partition = partitions[segment];
+            long[] subKeys = new long[partition.size()];
+            ByteBuffer[] subData = new ByteBuffer[partition.size()];
+            for (int i = 0; i < subKeys.length; i++) {
+                subKeys[i] = keys[partition.getInt(i)];
+                subData[i] = data[partition.getInt(i)];
+            }
+            this.backends[segment].setSectionDataBatch(subKeys, subData);
+        });
+    }
+
+    @Override
+    public void putIdMapping(int id, ByteBuffer data) {
+        //Replicate the mappings over all the dbs to mean the chance of recovery in case of corruption is 30x
+        // each fragment gets its own view so the buffer position isnt shared between threads
+        this.runParallel(this.allFragments(), fragment -> this.backends[fragment].putIdMapping(id, data.duplicate().order(data.order())));
     }
 
     private record EqualingArray(byte[] bytes) {
@@ -69,11 +241,14 @@ public class FragmentedStorageBackendAdaptor extends StorageBackend {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public Int2ObjectOpenHashMap<byte[]> getIdMappingsData() {
         Object2IntOpenHashMap<Int2ObjectOpenHashMap<EqualingArray>> verification = new Object2IntOpenHashMap<>();
         Int2ObjectOpenHashMap<EqualingArray> any = null;
-        for (var backend : this.backends) {
-            var mappings = backend.getIdMappingsData();
+        var allMappings = new Int2ObjectOpenHashMap[this.backends.length];
+        this.runParallel(this.allFragments(), fragment -> allMappings[fragment] = this.backends[fragment].getIdMappingsData());
+        for (var fragmentMappings : allMappings) {
+            Int2ObjectOpenHashMap<byte[]> mappings = fragmentMappings;
             if (mappings.isEmpty()) {
                 //TODO: log a warning and attempt to replicate the data the other fragments
                 continue;
@@ -119,15 +294,15 @@ public class FragmentedStorageBackendAdaptor extends StorageBackend {
 
     @Override
     public void flush() {
-        for (var db : this.backends) {
-            db.flush();
-        }
+        this.runParallel(this.allFragments(), fragment -> this.backends[fragment].flush());
     }
 
     @Override
     public void close() {
-        for (var db : this.backends) {
-            db.close();
+        try {
+            this.runParallel(this.allFragments(), fragment -> this.backends[fragment].close());
+        } finally {
+            this.executor.shutdown();
         }
     }
 
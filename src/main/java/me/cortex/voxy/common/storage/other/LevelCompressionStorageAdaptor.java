@@ -0,0 +1,230 @@
+package me.cortex.voxy.common.storage.other;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.StorageCompressor;
+import me.cortex.voxy.common.storage.config.CompressorConfig;
+import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
+import me.cortex.voxy.common.world.WorldEngine;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+//Compresses the section data with a codec chosen per lod level, e.g. a fast codec for the frequently loaded low levels
+// and a high ratio codec for the rarely touched high levels
+//Every entry is prefixed with a tag byte holding the index of the codec it was compressed with, so data stays readable
+// when the level mapping is changed and a storage can hold a mix of codecs
+public class LevelCompressionStorageAdaptor extends DelegatingStorageAdaptor {
+    private static final int MAX_DECOMPRESSED_SIZE = 32*32*32*8*2;
+    //Each codec gets its own part of the metadata id range so that e.g. two zstd dictionaries dont collide
+    private static final int METADATA_IDS_PER_CODEC = 1<<24;
+
+    private final StorageCompressor[] compressors;
+    private final byte[] levelCompressors = new byte[16];
+    private final ConcurrentLinkedDeque<ByteBuffer> decompressionBuffers = new ConcurrentLinkedDeque<>();
+
+    //levelCompressors maps the lod level to the index of the compressor, levels past the end use the last entry
+    public LevelCompressionStorageAdaptor(StorageCompressor[] compressors, int[] levelCompressors, StorageBackend delegate) {
+        super(delegate);
+        if (compressors.length == 0 || compressors.length > 64) {
+            throw new IllegalArgumentException("Between 1 and 64 compressors are supported, got " + compressors.length);
+        }
+        if (levelCompressors.length == 0) {
+            throw new IllegalArgumentException("No level compressor mapping");
+        }
+        this.compressors = compressors;
+        for (int lvl = 0; lvl < this.levelCompressors.length; lvl++) {
+            int index = levelCompressors[Math.min(lvl, levelCompressors.length-1)];
+            if (index < 0 || index >= compressors.length) {
+                throw new IllegalArgumentException("Level " + lvl + " maps to unknown compressor " + index);
+            }
+            this.levelCompressors[lvl] = (byte) index;
+        }
+        for (int i = 0; i < compressors.length; i++) {
+            compressors[i].attachMetadataStore(CompressionStorageAdaptor.createMetadataStore(delegate, i*METADATA_IDS_PER_CODEC, METADATA_IDS_PER_CODEC));
+        }
+    }
+
+    //Hide the compressor metadata from the mapper
+    @Override
+    public Int2ObjectOpenHashMap<byte[]> getIdMappingsData() {
+        var mappings = this.delegate.getIdMappingsData();
+        var iterator = mappings.int2ObjectEntrySet().fastIterator();
+        while (iterator.hasNext()) {
+            if (CompressionStorageAdaptor.isMetadataId(iterator.next().getIntKey())) {
+                iterator.remove();
+            }
+        }
+        return mappings;
+    }
+
+    private ByteBuffer compress(long key, ByteBuffer data) {
+        int tag = this.levelCompressors[WorldEngine.getLevel(key)];
+        var compressed = this.compressors[tag].compress(data);
+        try {
+            var tagged = MemoryUtil.memAlloc(compressed.remaining() + 1);
+            tagged.put((byte) tag);
+            MemoryUtil.memCopy(compressed, tagged);
+            return tagged.rewind();
+        } finally {
+            MemoryUtil.memFree(compressed);
+        }
+    }
+
+    private StorageCompressor getCompressor(ByteBuffer data) {
+        if (!data.hasRemaining()) {
+            throw new IllegalStateException("Section data is missing its codec tag");
+        }
+        int tag = Byte.toUnsignedInt(data.get(data.position()));
+        if (tag >= this.compressors.length) {
+            throw new IllegalStateException("Section data compressed with unknown codec " + tag);
+        }
+        return this.compressors[tag];
+    }
+
+    private static ByteBuffer untag(ByteBuffer data) {
+        return data.slice(data.position() + 1, data.remaining() - 1).order(data.order());
+    }
+
+    private ByteBuffer decompress(ByteBuffer data) {
+        return this.getCompressor(data).decompress(untag(data));
+    }
+
+    private ByteBuffer decompress(ByteBuffer data, ByteBuffer into) {
+        return this.getCompressor(data).decompress(untag(data), into);
+    }
+
+    private ByteBuffer acquireBuffer() {
+        var buffer = this.decompressionBuffers.poll();
+        if (buffer == null) {
+            buffer = MemoryUtil.memAlloc(MAX_DECOMPRESSED_SIZE);
+        }
+        return buffer;
+    }
+
+    @Override
+    public ByteBuffer getSectionData(long key) {
+        var data = this.delegate.getSectionData(key);
+        if (data == null) {
+            return null;
+        }
+        try {
+            return this.decompress(data);
+        } finally {
+            MemoryUtil.memFree(data);
+        }
+    }
+
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return this.delegate.visitSectionData(key, data -> {
+            if (data == null) {
+                return visitor.visit(null);
+            }
+            var buffer = this.acquireBuffer();
+            try {
+                return visitor.visit(this.decompress(data, buffer));
+            } finally {
+                this.decompressionBuffers.add(buffer);
+            }
+        });
+    }
+
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        var buffer = this.acquireBuffer();
+        try {
+            return this.delegate.scanSections(minKey, maxKey, (key, data) -> visitor.visit(key, this.decompress(data, buffer)));
+        } finally {
+            this.decompressionBuffers.add(buffer);
+        }
+    }
+
+    @Override
+    public void setSectionData(long key, ByteBuffer data) {
+        var cdata = this.compress(key, data);
+        this.delegate.setSectionData(key, cdata);
+        MemoryUtil.memFree(cdata);
+    }
+
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var datas = this.delegate.getSectionDataBatch(keys);
+        boolean success = false;
+        try {
+            for (int i = 0; i < datas.length; i++) {
+                var data = datas[i];
+                if (data == null) {
+                    continue;
+                }
+                datas[i] = this.decompress(data);
+                MemoryUtil.memFree(data);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                //Every entry is owned by this call, either already decompressed or still compressed (the failing one
+                // included)
+                for (var data : datas) {
+                    if (data != null) {
+                        MemoryUtil.memFree(data);
+                    }
+                }
+            }
+        }
+        return datas;
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        var cdatas = new ByteBuffer[data.length];
+        try {
+            for (int i = 0; i < data.length; i++) {
+                cdatas[i] = this.compress(keys[i], data[i]);
+            }
+            this.delegate.setSectionDataBatch(keys, cdatas);
+        } finally {
+            for (var cdata : cdatas) {
+                if (cdata != null) {
+                    MemoryUtil.memFree(cdata);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        ByteBuffer buffer;
+        while ((buffer = this.decompressionBuffers.poll()) != null) {
+            MemoryUtil.memFree(buffer);
+        }
+        for (var compressor : this.compressors) {
+            compressor.close();
+        }
+        super.close();
+    }
+
+    public static class Config extends DelegateStorageConfig {
+        //The index of a codec is stored with the data, so entries must only ever be appended to this list
+        public List<CompressorConfig> compressors = new ArrayList<>();
+        //Index into compressors for each lod level, levels past the end of the list use the last entry
+        public List<Integer> levelCompressors = new ArrayList<>();
+
+        @Override
+        public StorageBackend build(ConfigBuildCtx ctx) {
+            var compressors = new StorageCompressor[this.compressors.size()];
+            for (int i = 0; i < compressors.length; i++) {
+                compressors[i] = this.compressors.get(i).build(ctx);
+            }
+            var levels = this.levelCompressors.stream().mapToInt(Integer::intValue).toArray();
+            return new LevelCompressionStorageAdaptor(compressors, levels, this.delegate.build(ctx));
+        }
+
+        public static String getConfigTypeName() {
+            return "LevelCompressionAdaptor";
+        }
+    }
+}
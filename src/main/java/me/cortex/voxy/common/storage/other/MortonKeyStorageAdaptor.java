@@ -0,0 +1,135 @@
+package me.cortex.voxy.common.storage.other;
+
+import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
+
+import java.nio.ByteBuffer;
+
+//Stores sections under Z-order (morton) keys, section keys are lvl|y|z|x bit fields so only x neighbours are adjacent
+// in the key order of ordered backends (lmdb, rocksdb), interleaving the coordinate bits keeps 3d neighbourhoods
+// clustered in the same pages/blocks
+//Key layout: 4 bit level, 32 bits of the upper 16 bits of x and z interleaved, 24 bits of the lower 8 bits of x, z and
+// y interleaved, 4 spare bits which are passed through untouched (e.g. the region packing tag)
+//The level stays the key prefix so level scans remain a single contiguous range
+//Only the keys given to the delegate are changed, the rest of the engine (and the gpu) keep using the plain section key,
+// since the stored key format changes this can only be added to new storage or through a storage migration
+public class MortonKeyStorageAdaptor extends DelegatingStorageAdaptor {
+    public MortonKeyStorageAdaptor(StorageBackend delegate) {
+        super(delegate);
+    }
+
+    //Spreads the low 8 bits so there are 2 zero bits between each
+    private static long spread3(long v) {
+        v &= 0xFF;
+        v = (v | (v << 8)) & 0x0300F00FL;
+        v = (v | (v << 4)) & 0x030C30C3L;
+        v = (v | (v << 2)) & 0x09249249L;
+        return v;
+    }
+
+    private static long compact3(long v) {
+        v &= 0x09249249L;
+        v = (v ^ (v >> 2)) & 0x030C30C3L;
+        v = (v ^ (v >> 4)) & 0x0300F00FL;
+        v = (v ^ (v >> 8)) & 0xFF;
+        return v;
+    }
+
+    //Spreads the low 16 bits so there is a zero bit between each
+    private static long spread2(long v) {
+        v &= 0xFFFF;
+        v = (v | (v << 8)) & 0x00FF00FFL;
+        v = (v | (v << 4)) & 0x0F0F0F0FL;
+        v = (v | (v << 2)) & 0x33333333L;
+        v = (v | (v << 1)) & 0x55555555L;
+        return v;
+    }
+
+    private static long compact2(long v) {
+        v &= 0x55555555L;
+        v = (v ^ (v >> 1)) & 0x33333333L;
+        v = (v ^ (v >> 2)) & 0x0F0F0F0FL;
+        v = (v ^ (v >> 4)) & 0x00FF00FFL;
+        v = (v ^ (v >> 8)) & 0xFFFFL;
+        return v;
+    }
+
+    public static long toMortonKey(long key) {
+        long x = (key>>>4)&0xFFFFFF;
+        long z = (key>>>28)&0xFFFFFF;
+        long y = (key>>>52)&0xFF;
+        long low = spread3(x)|(spread3(z)<<1)|(spread3(y)<<2);
+        long high = spread2(x>>>8)|(spread2(z>>>8)<<1);
+        return (key&0xF000000000000000L)|(high<<28)|(low<<4)|(key&0xF);
+    }
+
+    public static long fromMortonKey(long morton) {
+        long low = (morton>>>4)&0xFFFFFF;
+        long high = (morton>>>28)&0xFFFFFFFFL;
+        long x = compact3(low)|(compact2(high)<<8);
+        long z = compact3(low>>>1)|(compact2(high>>>1)<<8);
+        long y = compact3(low>>>2);
+        return (morton&0xF000000000000000L)|(y<<52)|(z<<28)|(x<<4)|(morton&0xF);
+    }
+
+    private static long[] toMortonKeys(long[] keys) {
+        var out = new long[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = toMortonKey(keys[i]);
+        }
+        return out;
+    }
+
+    @Override
+    public ByteBuffer getSectionData(long key) {
+        return super.getSectionData(toMortonKey(key));
+    }
+
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return super.visitSectionData(toMortonKey(key), visitor);
+    }
+
+    @Override
+    public void setSectionData(long key, ByteBuffer data) {
+        super.setSectionData(toMortonKey(key), data);
+    }
+
+    @Override
+    public void deleteSectionData(long key) {
+        super.deleteSectionData(toMortonKey(key));
+    }
+
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        return super.getSectionDataBatch(toMortonKeys(keys));
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        super.setSectionDataBatch(toMortonKeys(keys), data);
+    }
+
+    //A plain key range isnt a contiguous morton range, but the level prefix is shared, so the delegate scans the levels
+    // the range covers and the decoded keys are filtered
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        long mortonMin = minKey&0xF000000000000000L;
+        long mortonMax = maxKey|0x0FFFFFFFFFFFFFFFL;
+        return super.scanSections(mortonMin, mortonMax, (morton, data) -> {
+            long key = fromMortonKey(morton);
+            return !isKeyInRange(key, minKey, maxKey) || visitor.visit(key, data);
+        });
+    }
+
+    public static class Config extends DelegateStorageConfig {
+        @Override
+        public StorageBackend build(ConfigBuildCtx ctx) {
+            return new MortonKeyStorageAdaptor(this.delegate.build(ctx));
+        }
+
+        public static String getConfigTypeName() {
+            return "MortonKeyAdaptor";
+        }
+    }
+}
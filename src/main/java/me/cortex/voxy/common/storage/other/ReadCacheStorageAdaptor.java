@@ -0,0 +1,425 @@
+package me.cortex.voxy.common.storage.other;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
+import net.minecraft.util.math.random.RandomSeed;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+//Caches recently read section payloads off heap within a fixed byte budget, the cache is split into shards by key hash
+// each with their own lock and W-TinyLFU policy (a small lru admission window in front of a segmented lru main cache,
+// with a frequency sketch deciding if entries leaving the window replace the main cache victim), so one off scans
+// such as flying through new terrain dont flush out the sections that keep getting reloaded around the player
+//Writes and deletes invalidate the cached entry
+public class ReadCacheStorageAdaptor extends DelegatingStorageAdaptor {
+    private static final int SHARD_COUNT = 16;
+
+    private final Shard[] shards = new Shard[SHARD_COUNT];
+    private final long maxBytes;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ReadCacheStorageAdaptor(StorageBackend delegate, long maxBytes) {
+        super(delegate);
+        this.maxBytes = maxBytes;
+        for (int i = 0; i < SHARD_COUNT; i++) {
+            this.shards[i] = new Shard(maxBytes/SHARD_COUNT);
+        }
+    }
+
+    private static long hash(long key) {
+        return RandomSeed.mixStafford13(key);
+    }
+
+    private Shard getShard(long key) {
+        return this.shards[(int) (hash(key)>>>60)&(SHARD_COUNT-1)];
+    }
+
+    //Approximate per key access counts with periodic aging, a count min sketch of 4 bit counters where each key maps to
+    // 4 counters in the same nibble group of 4 different words
+    private static final class FrequencySketch {
+        private static final long[] SEEDS = {0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L};
+        private final long[] table;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int expectedEntries) {
+            int words = Integer.highestOneBit(Math.max(16, expectedEntries/4)-1)<<1;
+            this.table = new long[words];
+            this.sampleSize = Math.max(expectedEntries, 16)*10;
+        }
+
+        private int indexOf(long hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h>>>32;
+            return (int) (h&(this.table.length-1));
+        }
+
+        private void increment(long hash) {
+            int start = ((int) hash&3)<<2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                int index = this.indexOf(hash, i);
+                int offset = (start+i)<<2;
+                if (((this.table[index]>>>offset)&15) != 15) {
+                    this.table[index] += 1L<<offset;
+                    added = true;
+                }
+            }
+            if (added && ++this.additions >= this.sampleSize) {
+                //Age all the counts so that the sketch follows changes in the access pattern
+                for (int i = 0; i < this.table.length; i++) {
+                    this.table[i] = (this.table[i]>>>1)&0x7777777777777777L;
+                }
+                this.additions >>>= 1;
+            }
+        }
+
+        private int frequency(long hash) {
+            int start = ((int) hash&3)<<2;
+            int freq = 15;
+            for (int i = 0; i < 4; i++) {
+                int offset = (start+i)<<2;
+                freq = Math.min(freq, (int) ((this.table[this.indexOf(hash, i)]>>>offset)&15));
+            }
+            return freq;
+        }
+    }
+
+    private static final int WINDOW = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    private static final class Entry {
+        private final long key;
+        private final long hash;
+        private final ByteBuffer data;
+        private final int size;
+        private int segment;
+        private Entry prev;
+        private Entry next;
+
+        private Entry(long key, long hash, ByteBuffer data) {
+            this.key = key;
+            this.hash = hash;
+            this.data = data;
+            this.size = data == null ? 0 : data.capacity();
+            this.prev = this;
+            this.next = this;
+        }
+    }
+
+    private static void unlink(Entry entry) {
+        entry.prev.next = entry.next;
+        entry.next.prev = entry.prev;
+        entry.prev = entry;
+        entry.next = entry;
+    }
+
+    private static void linkFirst(Entry list, Entry entry) {
+        entry.prev = list;
+        entry.next = list.next;
+        list.next.prev = entry;
+        list.next = entry;
+    }
+
+    private final class Shard {
+        //Number of write stamps, a write to any key sharing a stamp causes an in flight miss load to not be cached
+        private static final int STAMP_COUNT = 64;
+
+        private final Long2ObjectOpenHashMap<Entry> entries = new Long2ObjectOpenHashMap<>();
+        private final long[] writeStamps = new long[STAMP_COUNT];
+        private final FrequencySketch sketch;
+        //Sentinels of the lru lists, the entry after the sentinel is the most recently used
+        private final Entry window = new Entry(0, 0, null);
+        private final Entry probation = new Entry(0, 0, null);
+        private final Entry protectedSegment = new Entry(0, 0, null);
+        private final long windowBudget;
+        private final long mainBudget;
+        private final long protectedBudget;
+        private long windowBytes;
+        private long probationBytes;
+        private long protectedBytes;
+
+        private Shard(long budget) {
+            this.windowBudget = Math.max(budget/100, Math.min(budget/4, 256*1024));
+            this.mainBudget = budget - this.windowBudget;
+            this.protectedBudget = (this.mainBudget*4)/5;
+            //Assume compressed sections are around 2kb for sizing the sketch
+            this.sketch = new FrequencySketch((int) Math.min(1<<22, Math.max(1, budget/2048)));
+        }
+
+        private void removeFromSegment(Entry entry) {
+            unlink(entry);
+            switch (entry.segment) {
+                case WINDOW -> this.windowBytes -= entry.size;
+                case PROBATION -> this.probationBytes -= entry.size;
+                case PROTECTED -> this.protectedBytes -= entry.size;
+            }
+        }
+
+        private void drop(Entry entry) {
+            this.entries.remove(entry.key);
+            MemoryUtil.memFree(entry.data);
+        }
+
+        private synchronized ByteBuffer get(long key) {
+            var entry = this.entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            this.sketch.increment(entry.hash);
+            switch (entry.segment) {
+                case WINDOW -> {
+                    unlink(entry);
+                    linkFirst(this.window, entry);
+                }
+                case PROBATION -> {
+                    this.removeFromSegment(entry);
+                    entry.segment = PROTECTED;
+                    linkFirst(this.protectedSegment, entry);
+                    this.protectedBytes += entry.size;
+                    //Demote the least recently used protected entries back into probation
+                    while (this.protectedBytes > this.protectedBudget) {
+                        var demoted = this.protectedSegment.prev;
+                        this.removeFromSegment(demoted);
+                        demoted.segment = PROBATION;
+                        linkFirst(this.probation, demoted);
+                        this.probationBytes += demoted.size;
+                    }
+                }
+                case PROTECTED -> {
+                    unlink(entry);
+                    linkFirst(this.protectedSegment, entry);
+                }
+            }
+            var copy = MemoryUtil.memAlloc(entry.size);
+            MemoryUtil.memCopy(entry.data, copy);
+            return copy;
+        }
+
+        private int stampSlot(long hash) {
+            return (int) (hash>>>32)&(STAMP_COUNT-1);
+        }
+
+        private synchronized long getWriteStamp(long key) {
+            return this.writeStamps[this.stampSlot(hash(key))];
+        }
+
+        //Caches a copy of the data loaded from the delegate, unless a write to the key could have happened since the load
+        // started in which case the loaded data may be stale
+        private synchronized void insert(long key, ByteBuffer data, long writeStamp) {
+            long hash = hash(key);
+            this.sketch.increment(hash);
+            if (this.writeStamps[this.stampSlot(hash)] != writeStamp || this.entries.containsKey(key)) {
+                return;
+            }
+            int size = data.remaining();
+            if (size > this.windowBudget || size > this.mainBudget) {
+                return;
+            }
+            var copy = MemoryUtil.memAlloc(size);
+            MemoryUtil.memCopy(data, copy);
+            var entry = new Entry(key, hash, copy);
+            entry.segment = WINDOW;
+            this.entries.put(key, entry);
+            linkFirst(this.window, entry);
+            this.windowBytes += size;
+
+            while (this.windowBytes > this.windowBudget) {
+                var candidate = this.window.prev;
+                this.removeFromSegment(candidate);
+                this.admit(candidate);
+            }
+        }
+
+        //Moves an entry leaving the window into probation if its accessed more frequently than the entries it would evict
+        private void admit(Entry candidate) {
+            int candidateFrequency = this.sketch.frequency(candidate.hash);
+            while (this.probationBytes + this.protectedBytes + candidate.size > this.mainBudget) {
+                var victim = this.probation.prev != this.probation ? this.probation.prev : this.protectedSegment.prev;
+                if (this.sketch.frequency(victim.hash) >= candidateFrequency) {
+                    this.drop(candidate);
+                    ReadCacheStorageAdaptor.this.evictions.increment();
+                    return;
+                }
+                this.removeFromSegment(victim);
+                this.drop(victim);
+                ReadCacheStorageAdaptor.this.evictions.increment();
+            }
+            candidate.segment = PROBATION;
+            linkFirst(this.probation, candidate);
+            this.probationBytes += candidate.size;
+        }
+
+        private synchronized void invalidate(long key) {
+            this.writeStamps[this.stampSlot(hash(key))]++;
+            var entry = this.entries.get(key);
+            if (entry != null) {
+                this.removeFromSegment(entry);
+                this.drop(entry);
+            }
+        }
+
+        private synchronized long getSize() {
+            return this.windowBytes + this.probationBytes + this.protectedBytes;
+        }
+
+        private synchronized void clear() {
+            for (var entry : this.entries.values()) {
+                MemoryUtil.memFree(entry.data);
+            }
+            this.entries.clear();
+            for (var list : new Entry[]{this.window, this.probation, this.protectedSegment}) {
+                list.prev = list;
+                list.next = list;
+            }
+            this.windowBytes = 0;
+            this.probationBytes = 0;
+            this.protectedBytes = 0;
+        }
+    }
+
+    @Override
+    public ByteBuffer getSectionData(long key) {
+        var shard = this.getShard(key);
+        var cached = shard.get(key);
+        if (cached != null) {
+            this.hits.increment();
+            return cached;
+        }
+        this.misses.increment();
+        long stamp = shard.getWriteStamp(key);
+        var data = this.delegate.getSectionData(key);
+        if (data != null) {
+            shard.insert(key, data, stamp);
+        }
+        return data;
+    }
+
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        var shard = this.getShard(key);
+        var cached = shard.get(key);
+        if (cached != null) {
+            this.hits.increment();
+            try {
+                return visitor.visit(cached);
+            } finally {
+                MemoryUtil.memFree(cached);
+            }
+        }
+        this.misses.increment();
+        long stamp = shard.getWriteStamp(key);
+        return this.delegate.visitSectionData(key, data -> {
+            if (data != null) {
+                shard.insert(key, data, stamp);
+            }
+            return visitor.visit(data);
+        });
+    }
+
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        var missIndices = new IntArrayList();
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = this.getShard(keys[i]).get(keys[i]);
+            if (out[i] == null) {
+                missIndices.add(i);
+            }
+        }
+        this.hits.add(keys.length - missIndices.size());
+        if (missIndices.isEmpty()) {
+            return out;
+        }
+        this.misses.add(missIndices.size());
+        long[] missKeys = new long[missIndices.size()];
+        long[] stamps = new long[missKeys.length];
+        for (int i = 0; i < missKeys.length; i++) {
+            missKeys[i] = keys[missIndices.getInt(i)];
+            stamps[i] = this.getShard(missKeys[i]).getWriteStamp(missKeys[i]);
+        }
+        var loaded = this.delegate.getSectionDataBatch(missKeys);
+        for (int i = 0; i < missKeys.length; i++) {
+            if (loaded[i] != null) {
+                this.getShard(missKeys[i]).insert(missKeys[i], loaded[i], stamps[i]);
+            }
+            out[missIndices.getInt(i)] = loaded[i];
+        }
+        return out;
+    }
+
+    @Override
+    public void setSectionData(long key, ByteBuffer data) {
+        this.delegate.setSectionData(key, data);
+        this.getShard(key).invalidate(key);
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        this.delegate.setSectionDataBatch(keys, data);
+        for (long key : keys) {
+            this.getShard(key).invalidate(key);
+        }
+    }
+
+    @Override
+    public void deleteSectionData(long key) {
+        this.delegate.deleteSectionData(key);
+        this.getShard(key).invalidate(key);
+    }
+
+    @Override
+    public void close() {
+        for (var shard : this.shards) {
+            shard.clear();
+        }
+        super.close();
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    public long getCachedBytes() {
+        long size = 0;
+        for (var shard : this.shards) {
+            size += shard.getSize();
+        }
+        return size;
+    }
+
+    public String getDebugString() {
+        return "Read cache H/M/E: " + this.getHitCount() + "/" + this.getMissCount() + "/" + this.getEvictionCount()
+                + " " + (this.getCachedBytes()>>20) + "/" + (this.maxBytes>>20) + "MB";
+    }
+
+    public static class Config extends DelegateStorageConfig {
+        //Max amount of off heap memory used by the cached section data
+        public long maxCacheBytes = 64L<<20;
+
+        @Override
+        public StorageBackend build(ConfigBuildCtx ctx) {
+            return new ReadCacheStorageAdaptor(this.delegate.build(ctx), this.maxCacheBytes);
+        }
+
+        public static String getConfigTypeName() {
+            return "ReadCacheAdaptor";
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package me.cortex.voxy.common.storage.other;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import me.cortex.voxy.common.storage.StorageBackend;
 import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
 import me.cortex.voxy.common.storage.config.StorageConfig;
@@ -40,6 +41,25 @@ public class ReadonlyCachingLayer extends StorageBackend {
         this.cache.deleteSectionData(key);
     }
 
+    //Sections in the cache shadow the ones in the backing storage, so the backing storage scan skips every key the
+    // cache already visited
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        var seen = new LongOpenHashSet();
+        if (!this.cache.scanSections(minKey, maxKey, (key, data) -> {
+            seen.add(key);
+            return visitor.visit(key, data);
+        })) {
+            return false;
+        }
+        return this.onMiss.scanSections(minKey, maxKey, (key, data) -> seen.contains(key) || visitor.visit(key, data));
+    }
+
+    @Override
+    public boolean hasOrderedScans() {
+        return this.cache.hasOrderedScans() && this.onMiss.hasOrderedScans();
+    }
+
     @Override
     public void putIdMapping(int id, ByteBuffer data) {
         this.cache.putIdMapping(id, data);
@@ -53,8 +73,8 @@ public class ReadonlyCachingLayer extends StorageBackend {
 
     @Override
     public void flush() {
-        this.cache.close();
-        this.onMiss.close();
+        this.cache.flush();
+        this.onMiss.flush();
     }
 
     @Override
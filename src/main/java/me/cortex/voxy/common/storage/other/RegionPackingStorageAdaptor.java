@@ -0,0 +1,385 @@
+package me.cortex.voxy.common.storage.other;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.cortex.voxy.common.storage.StorageBackend;
+import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
+import me.cortex.voxy.common.world.WorldEngine;
+import org.lwjgl.system.MemoryUtil;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+//Packs aligned cubes of same level sections into a single record in the delegate, cutting the number of keys (and the
+// per key overhead of the backend) by the region volume, neighbouring sections are almost always loaded together so
+// whole region records are kept in a small cache
+//Record layout: int slot count, int payload length per slot (0 if the section doesnt exist), the payloads in slot order
+//Intended to go below the compression adaptor, each section is still compressed individually
+public class RegionPackingStorageAdaptor extends DelegatingStorageAdaptor {
+    //Set in the spare low bits of the region keys so they never alias an unpacked section key
+    private static final long REGION_KEY_TAG = 1;
+    private static final int LOCK_STRIPES = 64;
+
+    private final int regionBits;
+    private final int regionMask;
+    private final int slotCount;
+    private final int headerSize;
+
+    private final ReentrantLock[] regionLocks = new ReentrantLock[LOCK_STRIPES];
+
+    //Region records, owned by the cache and only accessed while synchronized on it
+    private final Long2ObjectLinkedOpenHashMap<ByteBuffer> regionCache = new Long2ObjectLinkedOpenHashMap<>();
+    private final long maxCacheBytes;
+    private long cacheBytes;
+
+    public RegionPackingStorageAdaptor(StorageBackend delegate, int regionBits, long maxCacheBytes) {
+        super(delegate);
+        if (regionBits < 1 || regionBits > 4) {
+            throw new IllegalArgumentException("Region bits must be between 1 and 4");
+        }
+        this.regionBits = regionBits;
+        this.regionMask = (1<<regionBits)-1;
+        this.slotCount = 1<<(regionBits*3);
+        this.headerSize = 4 + this.slotCount*4;
+        this.maxCacheBytes = maxCacheBytes;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            this.regionLocks[i] = new ReentrantLock();
+        }
+    }
+
+    private long getRegionKey(long key) {
+        int mask = ~this.regionMask;
+        return WorldEngine.getWorldSectionId(WorldEngine.getLevel(key), WorldEngine.getX(key)&mask, WorldEngine.getY(key)&mask, WorldEngine.getZ(key)&mask)|REGION_KEY_TAG;
+    }
+
+    private int getSlot(long key) {
+        int mask = this.regionMask;
+        return ((WorldEngine.getY(key)&mask)<<(this.regionBits*2))|((WorldEngine.getZ(key)&mask)<<this.regionBits)|(WorldEngine.getX(key)&mask);
+    }
+
+    private int getLockIndex(long regionKey) {
+        return (int) (Long.hashCode(regionKey*0x9E3779B97F4A7C15L)&(LOCK_STRIPES-1));
+    }
+
+    //Copies the slot out of a region record, returns null if the section isnt in the record
+    private ByteBuffer extractSlot(ByteBuffer region, int slot) {
+        if (region.getInt(0) != this.slotCount) {
+            throw new IllegalStateException("Region record has " + region.getInt(0) + " slots, expected " + this.slotCount);
+        }
+        int offset = this.headerSize;
+        for (int i = 0; i < slot; i++) {
+            offset += region.getInt(4+i*4);
+        }
+        int length = region.getInt(4+slot*4);
+        if (length == 0) {
+            return null;
+        }
+        var data = MemoryUtil.memAlloc(length);
+        MemoryUtil.memCopy(MemoryUtil.memAddress(region)+offset, MemoryUtil.memAddress(data), length);
+        return data;
+    }
+
+    private ByteBuffer getCachedSlot(long regionKey, int slot) {
+        synchronized (this.regionCache) {
+            var region = this.regionCache.getAndMoveToLast(regionKey);
+            return region == null ? null : this.extractSlot(region, slot);
+        }
+    }
+
+    //Gives ownership of the record to the cache, replacing and freeing any existing record
+    private void cacheRegion(long regionKey, ByteBuffer region) {
+        //The delegate may have moved the position when writing it
+        region.rewind();
+        synchronized (this.regionCache) {
+            var old = this.regionCache.putAndMoveToLast(regionKey, region);
+            if (old != null) {
+                this.cacheBytes -= old.capacity();
+                MemoryUtil.memFree(old);
+            }
+            this.cacheBytes += region.capacity();
+            while (this.cacheBytes > this.maxCacheBytes && !this.regionCache.isEmpty()) {
+                var evicted = this.regionCache.removeFirst();
+                this.cacheBytes -= evicted.capacity();
+                MemoryUtil.memFree(evicted);
+            }
+        }
+    }
+
+    private void uncacheRegion(long regionKey) {
+        synchronized (this.regionCache) {
+            var old = this.regionCache.remove(regionKey);
+            if (old != null) {
+                this.cacheBytes -= old.capacity();
+                MemoryUtil.memFree(old);
+            }
+        }
+    }
+
+    //Copy of the current region record, must hold the regions lock, returns null if the region doesnt exist
+    private ByteBuffer loadRegion(long regionKey) {
+        synchronized (this.regionCache) {
+            var region = this.regionCache.getAndMoveToLast(regionKey);
+            if (region != null) {
+                var copy = MemoryUtil.memAlloc(region.remaining());
+                MemoryUtil.memCopy(region, copy);
+                return copy;
+            }
+        }
+        return this.delegate.getSectionData(regionKey);
+    }
+
+    @Override
+    public ByteBuffer getSectionData(long key) {
+        long regionKey = this.getRegionKey(key);
+        int slot = this.getSlot(key);
+        var cached = this.getCachedSlot(regionKey, slot);
+        if (cached != null) {
+            return cached;
+        }
+        var lock = this.regionLocks[this.getLockIndex(regionKey)];
+        lock.lock();
+        try {
+            //Another thread could have loaded the region while waiting for the lock
+            synchronized (this.regionCache) {
+                var region = this.regionCache.getAndMoveToLast(regionKey);
+                if (region != null) {
+                    return this.extractSlot(region, slot);
+                }
+            }
+            var region = this.delegate.getSectionData(regionKey);
+            if (region == null) {
+                return null;
+            }
+            var data = this.extractSlot(region, slot);
+            this.cacheRegion(regionKey, region);
+            return data;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        //The section is a sub range of a cached record that can be replaced at any time, so it must be copied out
+        return this.visitCopiedSectionData(key, visitor);
+    }
+
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = this.getSectionData(keys[i]);
+        }
+        return out;
+    }
+
+    //Unpacks every region record overlapping the range, region records are written through so the delegate always has
+    // the latest version of them
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        //A region key is never greater than the keys of its sections (plus the tag) so maxKey bounds the regions from
+        // above, but aligning minKey to its region doesnt bound them from below, e.g. the region of (y2,z0) sorts below
+        // the region of (y1,z8), so the scan starts at the start of the level and relies on the per slot range check
+        long regionMin = getLevelMinKey(WorldEngine.getLevel(minKey));
+        long regionMax = maxKey|REGION_KEY_TAG;
+        return this.delegate.scanSections(regionMin, regionMax, (regionKey, region) -> {
+            if ((regionKey&REGION_KEY_TAG) == 0) {
+                return true;
+            }
+            if (region.getInt(0) != this.slotCount) {
+                throw new IllegalStateException("Region record has " + region.getInt(0) + " slots, expected " + this.slotCount);
+            }
+            int lvl = WorldEngine.getLevel(regionKey);
+            int x = WorldEngine.getX(regionKey);
+            int y = WorldEngine.getY(regionKey);
+            int z = WorldEngine.getZ(regionKey);
+            int offset = this.headerSize;
+            for (int slot = 0; slot < this.slotCount; slot++) {
+                int length = region.getInt(4+slot*4);
+                if (length == 0) {
+                    continue;
+                }
+                long key = WorldEngine.getWorldSectionId(lvl,
+                        x + (slot&this.regionMask),
+                        y + (slot>>(this.regionBits*2)),
+                        z + ((slot>>this.regionBits)&this.regionMask));
+                if (isKeyInRange(key, minKey, maxKey) && !visitor.visit(key, region.slice(offset, length).order(region.order()))) {
+                    return false;
+                }
+                offset += length;
+            }
+            return true;
+        });
+    }
+
+    //Builds a new region record from the old one (if any) with the updated slots applied, a null update deletes the slot
+    // returns null if the region is left empty
+    private ByteBuffer rebuildRegion(ByteBuffer old, ByteBuffer[] updates, boolean[] updated) {
+        int[] lengths = new int[this.slotCount];
+        int[] oldOffsets = new int[this.slotCount];
+        if (old != null) {
+            if (old.getInt(0) != this.slotCount) {
+                throw new IllegalStateException("Region record has " + old.getInt(0) + " slots, expected " + this.slotCount);
+            }
+            int offset = this.headerSize;
+            for (int i = 0; i < this.slotCount; i++) {
+                lengths[i] = old.getInt(4+i*4);
+                oldOffsets[i] = offset;
+                offset += lengths[i];
+            }
+        }
+        int total = this.headerSize;
+        boolean empty = true;
+        for (int i = 0; i < this.slotCount; i++) {
+            if (updated[i]) {
+                lengths[i] = updates[i] == null ? 0 : updates[i].remaining();
+            }
+            total += lengths[i];
+            empty &= lengths[i] == 0;
+        }
+        if (empty) {
+            return null;
+        }
+        var region = MemoryUtil.memAlloc(total);
+        region.putInt(0, this.slotCount);
+        long address = MemoryUtil.memAddress(region);
+        int offset = this.headerSize;
+        for (int i = 0; i < this.slotCount; i++) {
+            region.putInt(4+i*4, lengths[i]);
+            if (lengths[i] != 0) {
+                long src = updated[i] ? MemoryUtil.memAddress(updates[i]) : MemoryUtil.memAddress(old)+oldOffsets[i];
+                MemoryUtil.memCopy(src, address+offset, lengths[i]);
+            }
+            offset += lengths[i];
+        }
+        return region;
+    }
+
+    //Applies updates to sections grouped by region with a single read modify write per region, all the region locks are
+    // taken in order so concurrent batches cant deadlock
+    private void updateSections(long[] keys, ByteBuffer[] data) {
+        var regions = new Long2ObjectOpenHashMap<ByteBuffer[]>();
+        var regionUpdated = new Long2ObjectOpenHashMap<boolean[]>();
+        for (int i = 0; i < keys.length; i++) {
+            long regionKey = this.getRegionKey(keys[i]);
+            int slot = this.getSlot(keys[i]);
+            var updates = regions.get(regionKey);
+            if (updates == null) {
+                regions.put(regionKey, updates = new ByteBuffer[this.slotCount]);
+                regionUpdated.put(regionKey, new boolean[this.slotCount]);
+            }
+            //Later updates in the batch to the same section win
+            updates[slot] = data[i];
+            regionUpdated.get(regionKey)[slot] = true;
+        }
+
+        boolean[] lockSet = new boolean[LOCK_STRIPES];
+        for (long regionKey : regions.keySet()) {
+            lockSet[this.getLockIndex(regionKey)] = true;
+        }
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            if (lockSet[i]) this.regionLocks[i].lock();
+        }
+        try {
+            long[] writeKeys = new long[regions.size()];
+            ByteBuffer[] writeData = new ByteBuffer[regions.size()];
+            int writeCount = 0;
+            try {
+                for (var entry : regions.long2ObjectEntrySet()) {
+                    long regionKey = entry.getLongKey();
+                    var old = this.loadRegion(regionKey);
+                    ByteBuffer rebuilt;
+                    try {
+                        rebuilt = this.rebuildRegion(old, entry.getValue(), regionUpdated.get(regionKey));
+                    } finally {
+                        if (old != null) {
+                            MemoryUtil.memFree(old);
+                        }
+                    }
+                    if (rebuilt == null) {
+                        this.delegate.deleteSectionData(regionKey);
+                        this.uncacheRegion(regionKey);
+                    } else {
+                        writeKeys[writeCount] = regionKey;
+                        writeData[writeCount++] = rebuilt;
+                    }
+                }
+                if (writeCount != 0) {
+                    this.delegate.setSectionDataBatch(Arrays.copyOf(writeKeys, writeCount), Arrays.copyOf(writeData, writeCount));
+                }
+            } catch (Throwable e) {
+                for (int i = 0; i < writeCount; i++) {
+                    MemoryUtil.memFree(writeData[i]);
+                    //The cached record may no longer match the delegate
+                    this.uncacheRegion(writeKeys[i]);
+                }
+                throw e;
+            }
+            for (int i = 0; i < writeCount; i++) {
+                this.cacheRegion(writeKeys[i], writeData[i]);
+            }
+        } finally {
+            for (int i = LOCK_STRIPES-1; i >= 0; i--) {
+                if (lockSet[i]) this.regionLocks[i].unlock();
+            }
+        }
+    }
+
+    @Override
+    public void setSectionData(long key, ByteBuffer data) {
+        this.updateSections(new long[]{key}, new ByteBuffer[]{data});
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        this.updateSections(keys, data);
+    }
+
+    @Override
+    public void deleteSectionData(long key) {
+        this.updateSections(new long[]{key}, new ByteBuffer[]{null});
+    }
+
+    @Override
+    public void putIdMapping(int id, ByteBuffer data) {
+        this.delegate.putIdMapping(id, data);
+    }
+
+    @Override
+    public Int2ObjectOpenHashMap<byte[]> getIdMappingsData() {
+        return this.delegate.getIdMappingsData();
+    }
+
+    @Override
+    public void close() {
+        synchronized (this.regionCache) {
+            for (var region : this.regionCache.values()) {
+                MemoryUtil.memFree(region);
+            }
+            this.regionCache.clear();
+            this.cacheBytes = 0;
+        }
+        super.close();
+    }
+
+    public static class Config extends DelegateStorageConfig {
+        //Log2 of the region size along each axis, 2 packs 4x4x4 sections per record
+        public int regionBits = 2;
+        //Max amount of off heap memory used for caching region records
+        public long maxCacheBytes = 32L<<20;
+
+        @Override
+        public StorageBackend build(ConfigBuildCtx ctx) {
+            return new RegionPackingStorageAdaptor(this.delegate.build(ctx), this.regionBits, this.maxCacheBytes);
+        }
+
+        public static String getConfigTypeName() {
+            return "RegionPackingAdaptor";
+        }
+    }
+}
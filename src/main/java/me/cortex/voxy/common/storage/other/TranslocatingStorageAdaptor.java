@@ -95,6 +95,28 @@ public class TranslocatingStorageAdaptor extends DelegatingStorageAdaptor {
         super.deleteSectionData(key);
     }
 
+    //Scoped reads and batches need to go through the per key transforms, so dont forward them directly to the delegate
+    @Override
+    public <T> T visitSectionData(long key, SectionDataVisitor<T> visitor) {
+        return this.visitCopiedSectionData(key, visitor);
+    }
+
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var out = new ByteBuffer[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            out[i] = this.getSectionData(keys[i]);
+        }
+        return out;
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        for (int i = 0; i < keys.length; i++) {
+            this.setSectionData(keys[i], data[i]);
+        }
+    }
+
     public static class Config extends StorageConfig {
         public StorageConfig delegate;
         public List<BoxTransform> transforms = new ArrayList<>();
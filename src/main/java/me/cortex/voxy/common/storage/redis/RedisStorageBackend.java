@@ -1,14 +1,19 @@
 package me.cortex.voxy.common.storage.redis;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import me.cortex.voxy.common.storage.StorageBackend;
 import me.cortex.voxy.common.storage.config.ConfigBuildCtx;
 import me.cortex.voxy.common.storage.config.StorageConfig;
 import org.lwjgl.system.MemoryUtil;
 import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.params.ScanParams;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class RedisStorageBackend extends StorageBackend {
     private final JedisPool pool;
@@ -62,6 +67,55 @@ public class RedisStorageBackend extends StorageBackend {
         }
     }
 
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        try (var jedis = this.pool.getResource()) {
+            if (this.user != null) {
+                jedis.auth(this.user, this.password);
+            }
+
+            byte[][] fields = new byte[keys.length][];
+            for (int i = 0; i < keys.length; i++) {
+                fields[i] = longToBytes(keys[i]);
+            }
+            var results = jedis.hmget(WORLD, fields);
+            var out = new ByteBuffer[keys.length];
+            for (int i = 0; i < out.length; i++) {
+                var result = results.get(i);
+                if (result == null) {
+                    continue;
+                }
+                //Need to copy to native memory
+                var buffer = MemoryUtil.memAlloc(result.length);
+                buffer.put(result);
+                buffer.rewind();
+                out[i] = buffer;
+            }
+            return out;
+        }
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        try (var jedis = this.pool.getResource()) {
+            if (this.user != null) {
+                jedis.auth(this.user, this.password);
+            }
+
+            Map<byte[], byte[]> entries = new LinkedHashMap<>(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                var buffer = new byte[data[i].remaining()];
+                data[i].get(buffer);
+                data[i].rewind();
+                entries.put(longToBytes(keys[i]), buffer);
+            }
+            jedis.hset(WORLD, entries);
+        }
+    }
+
     @Override
     public void deleteSectionData(long key) {
         try (var jedis = this.pool.getResource()) {
@@ -73,6 +127,44 @@ public class RedisStorageBackend extends StorageBackend {
         }
     }
 
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        try (var jedis = this.pool.getResource()) {
+            if (this.user != null) {
+                jedis.auth(this.user, this.password);
+            }
+
+            //Hash fields are unordered so the whole hash is scanned and filtered, HSCAN may return a field more than once
+            // (e.g. while the hash is rehashing) so the visited keys are tracked
+            var params = new ScanParams().count(1024);
+            var seen = new LongOpenHashSet();
+            byte[] cursor = ScanParams.SCAN_POINTER_START_BINARY;
+            do {
+                var result = jedis.hscan(WORLD, cursor, params);
+                for (var entry : result.getResult()) {
+                    long key = bytesToLong(entry.getKey());
+                    if (!isKeyInRange(key, minKey, maxKey) || !seen.add(key)) {
+                        continue;
+                    }
+                    //Need to copy to native memory
+                    var value = entry.getValue();
+                    var buffer = MemoryUtil.memAlloc(value.length);
+                    buffer.put(value);
+                    buffer.rewind();
+                    try {
+                        if (!visitor.visit(key, buffer)) {
+                            return false;
+                        }
+                    } finally {
+                        MemoryUtil.memFree(buffer);
+                    }
+                }
+                cursor = result.getCursorAsBytes();
+            } while (!Arrays.equals(cursor, ScanParams.SCAN_POINTER_START_BINARY));
+            return true;
+        }
+    }
+
     @Override
     public void putIdMapping(int id, ByteBuffer data) {
         try (var jedis = this.pool.getResource()) {
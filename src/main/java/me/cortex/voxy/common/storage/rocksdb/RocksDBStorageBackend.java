@@ -10,6 +10,7 @@ import org.rocksdb.*;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -19,11 +20,26 @@ public class RocksDBStorageBackend extends StorageBackend {
     private final RocksDB db;
     private final ColumnFamilyHandle worldSections;
     private final ColumnFamilyHandle idMappings;
+    private final ReadOptions readOptions;
+    private final WriteOptions writeOptions;
+    private final boolean walDisabled;
+
+    //Reusable direct buffers, rocksdb only accepts direct buffers for its ByteBuffer apis
+    private static final ThreadLocal<ByteBuffer> KEY_BUFFERS = ThreadLocal.withInitial(()->ByteBuffer.allocateDirect(Long.BYTES));
+    private static final ThreadLocal<ByteBuffer[]> VALUE_SCRATCH = ThreadLocal.withInitial(()->new ByteBuffer[1]);
+    private static final int INITIAL_VALUE_SCRATCH_SIZE = 1<<16;
+    //Key and value buffers of batch reads
+    private static final ThreadLocal<ByteBuffer[]> BATCH_SCRATCH = ThreadLocal.withInitial(()->new ByteBuffer[2]);
+    private static final int BATCH_VALUE_SLOT_SIZE = 1<<14;
 
     //NOTE: closes in order
     private final List<AbstractImmutableNativeReference> closeList = new ArrayList<>();
 
     public RocksDBStorageBackend(String path) {
+        this(path, new Config());
+    }
+
+    public RocksDBStorageBackend(String path, Config config) {
         var lockPath = new File(path).toPath().resolve("LOCK");
         if (Files.exists(lockPath)) {
             System.err.println("WARNING, deleting rocksdb LOCK file");
@@ -45,7 +61,26 @@ public class RocksDBStorageBackend extends StorageBackend {
             }
         }
 
-        final ColumnFamilyOptions cfOpts = new ColumnFamilyOptions().optimizeUniversalStyleCompaction();
+        final ColumnFamilyOptions cfOpts = new ColumnFamilyOptions();
+        switch (config.compactionStyle.toLowerCase()) {
+            case "universal" -> cfOpts.optimizeUniversalStyleCompaction();
+            case "level" -> cfOpts.optimizeLevelStyleCompaction();
+            default -> throw new IllegalArgumentException("Unknown rocksdb compaction style " + config.compactionStyle);
+        }
+
+        final BlockBasedTableConfig tableConfig = new BlockBasedTableConfig();
+        Cache blockCache = null;
+        if (config.blockCacheSize > 0) {
+            blockCache = new LRUCache(config.blockCacheSize);
+            tableConfig.setBlockCache(blockCache);
+        }
+        Filter bloomFilter = null;
+        if (config.bloomFilterBitsPerKey > 0) {
+            //Most lookups of sections that dont exist can then skip reading data blocks
+            bloomFilter = new BloomFilter(config.bloomFilterBitsPerKey, false);
+            tableConfig.setFilterPolicy(bloomFilter);
+        }
+        cfOpts.setTableFormatConfig(tableConfig);
 
         final List<ColumnFamilyDescriptor> cfDescriptors = Arrays.asList(
             new ColumnFamilyDescriptor(RocksDB.DEFAULT_COLUMN_FAMILY, cfOpts),
@@ -68,6 +103,20 @@ public class RocksDBStorageBackend extends StorageBackend {
             this.closeList.add(this.db);
             this.closeList.add(options);
             this.closeList.add(cfOpts);
+            if (blockCache != null) {
+                this.closeList.add(blockCache);
+            }
+            if (bloomFilter != null) {
+                this.closeList.add(bloomFilter);
+            }
+
+            this.readOptions = new ReadOptions();
+            this.writeOptions = new WriteOptions()
+                    .setDisableWAL(config.disableWAL)
+                    .setSync(config.syncWrites);
+            this.closeList.add(this.readOptions);
+            this.closeList.add(this.writeOptions);
+            this.walDisabled = config.disableWAL;
 
             this.worldSections = handles.get(1);
             this.idMappings = handles.get(2);
@@ -76,18 +125,36 @@ public class RocksDBStorageBackend extends StorageBackend {
         }
     }
 
+    private static ByteBuffer keyBuffer(long key) {
+        var buffer = KEY_BUFFERS.get();
+        buffer.clear();
+        buffer.putLong(0, key);
+        return buffer;
+    }
+
     @Override
     public ByteBuffer getSectionData(long key) {
         try {
-            var result = this.db.get(this.worldSections, longToBytes(key));
-            if (result == null) {
-                return null;
+            //Read into a reusable scratch buffer, growing it if the value didnt fit
+            var scratchHolder = VALUE_SCRATCH.get();
+            var scratch = scratchHolder[0];
+            if (scratch == null) {
+                scratch = scratchHolder[0] = ByteBuffer.allocateDirect(INITIAL_VALUE_SCRATCH_SIZE);
+            }
+            while (true) {
+                scratch.clear();
+                int size = this.db.get(this.worldSections, this.readOptions, keyBuffer(key), scratch);
+                if (size == RocksDB.NOT_FOUND) {
+                    return null;
+                }
+                if (size <= scratch.capacity()) {
+                    var buffer = MemoryUtil.memAlloc(size);
+                    MemoryUtil.memCopy(MemoryUtil.memAddress(scratch, 0), MemoryUtil.memAddress(buffer), size);
+                    return buffer;
+                }
+                //The value can be rewritten larger between reads by a concurrent save, so keep growing until it fits
+                scratch = scratchHolder[0] = ByteBuffer.allocateDirect(Integer.highestOneBit(size)<<1);
             }
-            //Need to copy to native memory
-            var buffer = MemoryUtil.memAlloc(result.length);
-            buffer.put(result);
-            buffer.rewind();
-            return buffer;
         } catch (RocksDBException e) {
             throw new RuntimeException(e);
         }
@@ -95,11 +162,81 @@ public class RocksDBStorageBackend extends StorageBackend {
 
     @Override
     public void setSectionData(long key, ByteBuffer data) {
+        int position = data.position();
         try {
-            var buffer = new byte[data.remaining()];
-            data.get(buffer);
-            data.rewind();
-            this.db.put(this.worldSections, longToBytes(key), buffer);
+            this.db.put(this.worldSections, this.writeOptions, keyBuffer(key), data);
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        } finally {
+            data.position(position);
+        }
+    }
+
+    //Reads every value into a fixed size slot of a reusable direct buffer, values larger than a slot are reread on their own
+    @Override
+    public ByteBuffer[] getSectionDataBatch(long[] keys) {
+        var scratch = BATCH_SCRATCH.get();
+        if (scratch[0] == null || scratch[0].capacity() < keys.length*Long.BYTES) {
+            scratch[0] = ByteBuffer.allocateDirect(keys.length*Long.BYTES);
+            scratch[1] = ByteBuffer.allocateDirect(keys.length*BATCH_VALUE_SLOT_SIZE);
+        }
+        List<ColumnFamilyHandle> families = new ArrayList<>(keys.length);
+        List<ByteBuffer> keyBuffers = new ArrayList<>(keys.length);
+        List<ByteBuffer> valueBuffers = new ArrayList<>(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            families.add(this.worldSections);
+            keyBuffers.add(scratch[0].slice(i*Long.BYTES, Long.BYTES).putLong(0, keys[i]));
+            valueBuffers.add(scratch[1].slice(i*BATCH_VALUE_SLOT_SIZE, BATCH_VALUE_SLOT_SIZE));
+        }
+        var out = new ByteBuffer[keys.length];
+        boolean success = false;
+        try {
+            var results = this.db.multiGetByteBuffers(this.readOptions, families, keyBuffers, valueBuffers);
+            for (int i = 0; i < out.length; i++) {
+                var result = results.get(i);
+                var code = result.status.getCode();
+                if (code == Status.Code.NotFound) {
+                    continue;
+                }
+                if (code != Status.Code.Ok) {
+                    throw new RocksDBException(result.status);
+                }
+                if (result.requiredSize > BATCH_VALUE_SLOT_SIZE) {
+                    out[i] = this.getSectionData(keys[i]);
+                    continue;
+                }
+                var buffer = MemoryUtil.memAlloc(result.requiredSize);
+                MemoryUtil.memCopy(result.value, buffer);
+                out[i] = buffer;
+            }
+            success = true;
+            return out;
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (!success) {
+                for (var buffer : out) {
+                    if (buffer != null) {
+                        MemoryUtil.memFree(buffer);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void setSectionDataBatch(long[] keys, ByteBuffer[] data) {
+        if (keys.length != data.length) {
+            throw new IllegalArgumentException("Key count does not match data count");
+        }
+        try (var batch = new WriteBatch()) {
+            for (int i = 0; i < keys.length; i++) {
+                //The batch copies the key and value into its own representation so the buffers can be reused straight away
+                int position = data[i].position();
+                batch.put(this.worldSections, keyBuffer(keys[i]), data[i]);
+                data[i].position(position);
+            }
+            this.db.write(this.writeOptions, batch);
         } catch (RocksDBException e) {
             throw new RuntimeException(e);
         }
@@ -108,19 +245,56 @@ public class RocksDBStorageBackend extends StorageBackend {
     @Override
     public void deleteSectionData(long key) {
         try {
-            this.db.delete(this.worldSections, longToBytes(key));
+            this.db.delete(this.worldSections, this.writeOptions, longToBytes(key));
         } catch (RocksDBException e) {
             throw new RuntimeException(e);
         }
     }
 
+    //Keys are stored big endian so the iterator walks them in unsigned key order and can seek straight to the range
+    @Override
+    public boolean scanSections(long minKey, long maxKey, SectionScanVisitor visitor) {
+        var keyBuffer = ByteBuffer.allocateDirect(Long.BYTES);
+        var value = ByteBuffer.allocateDirect(INITIAL_VALUE_SCRATCH_SIZE);
+        try (var iterator = this.db.newIterator(this.worldSections, this.readOptions)) {
+            keyBuffer.putLong(0, minKey);
+            iterator.seek(keyBuffer);
+            for (; iterator.isValid(); iterator.next()) {
+                keyBuffer.clear();
+                iterator.key(keyBuffer);
+                long key = keyBuffer.getLong(0);
+                if (Long.compareUnsigned(key, maxKey) > 0) {
+                    break;
+                }
+                value.clear();
+                int size = iterator.value(value);
+                if (size > value.capacity()) {
+                    value = ByteBuffer.allocateDirect(Integer.highestOneBit(size)<<1);
+                    iterator.value(value);
+                }
+                if (!visitor.visit(key, value.asReadOnlyBuffer().order(ByteOrder.nativeOrder()))) {
+                    return false;
+                }
+            }
+            iterator.status();
+        } catch (RocksDBException e) {
+            throw new RuntimeException(e);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean hasOrderedScans() {
+        return true;
+    }
+
     @Override
     public void putIdMapping(int id, ByteBuffer data) {
         try {
             var buffer = new byte[data.remaining()];
             data.get(buffer);
             data.rewind();
-            this.db.put(this.idMappings, intToBytes(id), buffer);
+            this.db.put(this.idMappings, this.writeOptions, intToBytes(id), buffer);
         } catch (
                 RocksDBException e) {
             throw new RuntimeException(e);
@@ -140,7 +314,14 @@ public class RocksDBStorageBackend extends StorageBackend {
     @Override
     public void flush() {
         try {
-            this.db.flushWal(true);
+            if (this.walDisabled) {
+                //Without the wal the memtables are the only copy of recent writes
+                try (var flushOptions = new FlushOptions().setWaitForFlush(true)) {
+                    this.db.flush(flushOptions, List.of(this.worldSections, this.idMappings));
+                }
+            } else {
+                this.db.flushWal(true);
+            }
         } catch (RocksDBException e) {
             throw new RuntimeException(e);
         }
@@ -177,9 +358,19 @@ public class RocksDBStorageBackend extends StorageBackend {
     }
 
     public static class Config extends StorageConfig {
+        //Size of the shared block cache in bytes, 0 uses the rocksdb default
+        public long blockCacheSize = 64L<<20;
+        //Bits per key of the bloom filter on the section data, 0 disables the bloom filter
+        public double bloomFilterBitsPerKey = 10;
+        //Either universal or level
+        public String compactionStyle = "universal";
+        //Disabling the write ahead log makes writes cheaper but unflushed data is lost on a crash
+        public boolean disableWAL = false;
+        public boolean syncWrites = false;
+
         @Override
         public StorageBackend build(ConfigBuildCtx ctx) {
-            return new RocksDBStorageBackend(ctx.ensurePathExists(ctx.substituteString(ctx.resolvePath())));
+            return new RocksDBStorageBackend(ctx.ensurePathExists(ctx.substituteString(ctx.resolvePath())), this);
         }
 
         public static String getConfigTypeName() {
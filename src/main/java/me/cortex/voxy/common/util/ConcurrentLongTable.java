@@ -0,0 +1,214 @@
+package me.cortex.voxy.common.util;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.ToLongFunction;
+
+//Concurrent open addressed (linear probing) hash table of objects that carry their own long key
+//Lookups are lock free, inserts and removals are a single CAS on the slot. Removals leave a tombstone and inserts only
+// ever fill empty slots, so threads inserting the same key always race on the same slot and the table never holds a key
+// twice
+//Once a segment is half full (tombstones included) its rebuilt into a new slot array, only the rebuild excludes the
+// writers of that segment, readers keep probing the old array which isnt modified while its copied
+public final class ConcurrentLongTable<V> {
+    private static final Object TOMBSTONE = new Object();
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(Object[].class);
+
+    private static final class Segment {
+        //Writers hold the read lock so they run concurrently, the rebuild holds the write lock
+        private final StampedLock rebuildLock = new StampedLock();
+        private volatile Object[] slots;
+        //Non empty slots, live entries and tombstones
+        private final AtomicInteger used = new AtomicInteger();
+        private final AtomicInteger size = new AtomicInteger();
+
+        private Segment(int capacity) {
+            this.slots = new Object[capacity];
+        }
+    }
+
+    private final Segment[] segments;
+    private final int minCapacity;
+    private final ToLongFunction<V> keyFunction;
+
+    public ConcurrentLongTable(int segmentBits, int initialCapacity, ToLongFunction<V> keyFunction) {
+        this.minCapacity = Math.max(16, Integer.highestOneBit(Math.max(1, initialCapacity-1))<<1);
+        this.keyFunction = keyFunction;
+        this.segments = new Segment[1<<segmentBits];
+        for (int i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment(this.minCapacity);
+        }
+    }
+
+    private static long hash(long key) {
+        key = (key ^ key >>> 30) * -4658895280553007687L;
+        key = (key ^ key >>> 27) * -7723592293110705685L;
+        return key ^ key >>> 31;
+    }
+
+    //The low hash bits select the segment, the high bits the starting slot
+    private Segment segment(long hash) {
+        return this.segments[(int) hash & (this.segments.length-1)];
+    }
+
+    private static int start(long hash, int mask) {
+        return (int) (hash>>>32) & mask;
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean hasKey(Object entry, long key) {
+        return entry != TOMBSTONE && this.keyFunction.applyAsLong((V) entry) == key;
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        long hash = hash(key);
+        var slots = this.segment(hash).slots;
+        int mask = slots.length-1;
+        for (int i = start(hash, mask), n = 0; n <= mask; i = (i+1)&mask, n++) {
+            Object entry = SLOTS.getAcquire(slots, i);
+            if (entry == null) {
+                return null;
+            }
+            if (this.hasKey(entry, key)) {
+                return (V) entry;
+            }
+        }
+        return null;
+    }
+
+    //Inserts the value if there is no entry with its key, returns the existing entry or null if the value was inserted
+    @SuppressWarnings("unchecked")
+    public V putIfAbsent(V value) {
+        long key = this.keyFunction.applyAsLong(value);
+        long hash = hash(key);
+        var segment = this.segment(hash);
+        while (true) {
+            Object[] slots;
+            boolean inserted = false;
+            long stamp = segment.rebuildLock.readLock();
+            try {
+                slots = segment.slots;
+                int mask = slots.length-1;
+                for (int i = start(hash, mask), n = 0; n <= mask; i = (i+1)&mask, n++) {
+                    Object entry = SLOTS.getAcquire(slots, i);
+                    if (entry == null) {
+                        entry = SLOTS.compareAndExchange(slots, i, null, value);
+                        if (entry == null) {
+                            inserted = true;
+                            break;
+                        }
+                        //Lost the race for the slot, check what won it
+                    }
+                    if (this.hasKey(entry, key)) {
+                        return (V) entry;
+                    }
+                }
+                if (inserted) {
+                    segment.size.incrementAndGet();
+                    if (segment.used.incrementAndGet() <= slots.length>>1) {
+                        return null;
+                    }
+                }
+            } finally {
+                segment.rebuildLock.unlockRead(stamp);
+            }
+            //Either the insert filled the segment past its load factor, or there was no empty slot left to insert into
+            // in which case the insert is retried after the rebuild
+            this.rebuild(segment, slots);
+            if (inserted) {
+                return null;
+            }
+        }
+    }
+
+    //Replaces the entry expected with value, which must have the same key, returns false if expected isnt in the table
+    public boolean replace(V expected, V value) {
+        return this.exchange(expected, value);
+    }
+
+    //Removes the entry expected, returns false if expected isnt in the table
+    public boolean remove(V expected) {
+        if (this.exchange(expected, TOMBSTONE)) {
+            this.segment(hash(this.keyFunction.applyAsLong(expected))).size.decrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean exchange(V expected, Object value) {
+        long key = this.keyFunction.applyAsLong(expected);
+        long hash = hash(key);
+        var segment = this.segment(hash);
+        long stamp = segment.rebuildLock.readLock();
+        try {
+            var slots = segment.slots;
+            int mask = slots.length-1;
+            for (int i = start(hash, mask), n = 0; n <= mask; i = (i+1)&mask, n++) {
+                Object entry = SLOTS.getAcquire(slots, i);
+                if (entry == null) {
+                    return false;
+                }
+                if (entry == expected) {
+                    //Only the slot holding the entry can change it, so a failed CAS means someone else removed it
+                    return SLOTS.compareAndSet(slots, i, expected, value);
+                }
+            }
+            return false;
+        } finally {
+            segment.rebuildLock.unlockRead(stamp);
+        }
+    }
+
+    //Copies the live entries of the segment into a new slot array sized so its at most a quarter full, which also
+    // drops the tombstones and shrinks the segment after mass removals
+    @SuppressWarnings("unchecked")
+    private void rebuild(Segment segment, Object[] expectedSlots) {
+        long stamp = segment.rebuildLock.writeLock();
+        try {
+            var old = segment.slots;
+            if (old != expectedSlots) {
+                return;//Already rebuilt by another thread
+            }
+            int size = segment.size.get();
+            int capacity = this.minCapacity;
+            while (capacity < size*4) {
+                capacity <<= 1;
+            }
+            var slots = new Object[capacity];
+            int mask = capacity-1;
+            for (Object entry : old) {
+                if (entry == null || entry == TOMBSTONE) {
+                    continue;
+                }
+                int i = start(hash(this.keyFunction.applyAsLong((V) entry)), mask);
+                while (slots[i] != null) {
+                    i = (i+1)&mask;
+                }
+                slots[i] = entry;
+            }
+            segment.used.set(size);
+            segment.slots = slots;
+        } finally {
+            segment.rebuildLock.unlockWrite(stamp);
+        }
+    }
+
+    public int[] getSegmentSizes() {
+        int[] res = new int[this.segments.length];
+        for (int i = 0; i < this.segments.length; i++) {
+            res[i] = this.segments[i].size.get();
+        }
+        return res;
+    }
+
+    public int size() {
+        int size = 0;
+        for (var segment : this.segments) {
+            size += segment.size.get();
+        }
+        return size;
+    }
+}
@@ -0,0 +1,240 @@
+package me.cortex.voxy.common.util;
+
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+//Off heap allocator of fixed size blocks carved out of large slabs
+//Freed blocks go onto a small per thread free list, only when that is empty or full is the global free list locked
+//The free lists of threads that have exited are swept back into the global list before a new slab or an individual
+// block is allocated, and all of them can be flushed back when the users of the pool shut down
+//Slabs are allocated while the total slab memory is within the budget and are never given back, past the budget
+// blocks are allocated individually and freed straight back
+public final class SlabAllocator {
+    private static final int THREAD_CACHE_SIZE = 8;
+
+    //Only locked by its owner thread outside of sweeps and flushes, so the lock is uncontended
+    private static final class ThreadCache {
+        private final Thread owner = Thread.currentThread();
+        private final long[] blocks = new long[THREAD_CACHE_SIZE];
+        private int count;
+    }
+
+    private final long blockSize;
+    private final int blocksPerSlab;
+    private volatile long budget;
+    private final ThreadLocal<ThreadCache> threadCaches = ThreadLocal.withInitial(this::createThreadCache);
+    //Every thread cache, guarded by itself
+    private final ArrayList<ThreadCache> allThreadCaches = new ArrayList<>();
+
+    //Guarded by itself, as is slabBytes
+    private final LongArrayList freeBlocks = new LongArrayList();
+    private long slabBytes;
+
+    //Blocks allocated outside a slab, guarded by itself, the count lets free skip the lock when there are none
+    private final LongOpenHashSet overflowBlocks = new LongOpenHashSet();
+    private final AtomicInteger overflowCount = new AtomicInteger();
+
+    private final AtomicLong usedBlocks = new AtomicLong();
+    private final LongAdder threadCacheHits = new LongAdder();
+    private final LongAdder allocations = new LongAdder();
+
+    public SlabAllocator(long blockSize, int blocksPerSlab, long budget) {
+        this.blockSize = blockSize;
+        this.blocksPerSlab = blocksPerSlab;
+        this.budget = budget;
+    }
+
+    private ThreadCache createThreadCache() {
+        var cache = new ThreadCache();
+        synchronized (this.allThreadCaches) {
+            this.allThreadCaches.add(cache);
+        }
+        return cache;
+    }
+
+    public long alloc() {
+        this.allocations.increment();
+        this.usedBlocks.incrementAndGet();
+        var cache = this.threadCaches.get();
+        synchronized (cache) {
+            if (cache.count != 0) {
+                this.threadCacheHits.increment();
+                return cache.blocks[--cache.count];
+            }
+        }
+        long block = this.allocFromSlabs(cache);
+        if (block == 0) {
+            //Blocks parked by exited threads are recovered before growing past what is already allocated
+            this.reclaimThreadCaches(false);
+            block = this.allocFromSlabs(cache);
+        }
+        if (block != 0) {
+            return block;
+        }
+        block = MemoryUtil.nmemAlloc(this.blockSize);
+        if (block == 0) {
+            throw new OutOfMemoryError("Failed to allocate " + this.blockSize + " bytes off heap");
+        }
+        synchronized (this.overflowBlocks) {
+            this.overflowBlocks.add(block);
+        }
+        this.overflowCount.incrementAndGet();
+        return block;
+    }
+
+    //Takes a block from the global free list, allocating a new slab if its empty and within the budget, returns 0 if
+    // there is no free block
+    private long allocFromSlabs(ThreadCache cache) {
+        long[] refill;
+        long block;
+        synchronized (this.freeBlocks) {
+            if (this.freeBlocks.isEmpty() && this.slabBytes + this.blockSize*this.blocksPerSlab <= this.budget) {
+                this.allocateSlab();
+            }
+            int free = this.freeBlocks.size();
+            if (free == 0) {
+                return 0;
+            }
+            //Take a few extra so a thread allocating in bursts doesnt lock on every allocation
+            refill = new long[Math.min(THREAD_CACHE_SIZE/2, free-1)];
+            for (int i = 0; i < refill.length; i++) {
+                refill[i] = this.freeBlocks.popLong();
+            }
+            block = this.freeBlocks.popLong();
+        }
+        if (refill.length != 0) {
+            int space;
+            synchronized (cache) {
+                space = Math.min(refill.length, THREAD_CACHE_SIZE - cache.count);
+                System.arraycopy(refill, 0, cache.blocks, cache.count, space);
+                cache.count += space;
+            }
+            if (space != refill.length) {
+                this.returnBlocks(refill, space, refill.length);
+            }
+        }
+        return block;
+    }
+
+    private void returnBlocks(long[] blocks, int from, int to) {
+        synchronized (this.freeBlocks) {
+            for (int i = from; i < to; i++) {
+                this.freeBlocks.add(blocks[i]);
+            }
+        }
+    }
+
+    //Moves the blocks of thread caches back to the global free list, either only of threads that have exited or of all
+    // threads
+    private void reclaimThreadCaches(boolean all) {
+        synchronized (this.allThreadCaches) {
+            var iterator = this.allThreadCaches.iterator();
+            while (iterator.hasNext()) {
+                var cache = iterator.next();
+                boolean dead = !cache.owner.isAlive();
+                if (!(all || dead)) {
+                    continue;
+                }
+                if (dead) {
+                    iterator.remove();
+                }
+                long[] blocks;
+                synchronized (cache) {
+                    blocks = Arrays.copyOf(cache.blocks, cache.count);
+                    cache.count = 0;
+                }
+                this.returnBlocks(blocks, 0, blocks.length);
+            }
+        }
+    }
+
+    //Returns the free lists of every thread to the global free list, to be called when the threads using the pool are
+    // shut down
+    public void flushThreadCaches() {
+        this.reclaimThreadCaches(true);
+    }
+
+    public void free(long block) {
+        this.usedBlocks.decrementAndGet();
+        if (this.overflowCount.get() != 0) {
+            boolean overflow;
+            synchronized (this.overflowBlocks) {
+                overflow = this.overflowBlocks.remove(block);
+            }
+            if (overflow) {
+                this.overflowCount.decrementAndGet();
+                MemoryUtil.nmemFree(block);
+                return;
+            }
+        }
+        var cache = this.threadCaches.get();
+        long[] spill = null;
+        synchronized (cache) {
+            if (cache.count == THREAD_CACHE_SIZE) {
+                //Spill half so the next few frees and allocs on this thread stay local
+                spill = Arrays.copyOfRange(cache.blocks, THREAD_CACHE_SIZE/2, THREAD_CACHE_SIZE);
+                cache.count = THREAD_CACHE_SIZE/2;
+            }
+            cache.blocks[cache.count++] = block;
+        }
+        if (spill != null) {
+            this.returnBlocks(spill, 0, spill.length);
+        }
+    }
+
+    //Must hold the free list lock
+    private void allocateSlab() {
+        long slabSize = this.blockSize*this.blocksPerSlab;
+        long slab = MemoryUtil.nmemAlloc(slabSize);
+        if (slab == 0) {
+            throw new OutOfMemoryError("Failed to allocate a " + slabSize + " byte slab");
+        }
+        this.slabBytes += slabSize;
+        for (int i = this.blocksPerSlab-1; i >= 0; i--) {
+            this.freeBlocks.add(slab + i*this.blockSize);
+        }
+    }
+
+    //Only limits the allocation of new slabs, existing slabs are kept
+    public void setBudget(long budget) {
+        this.budget = budget;
+    }
+
+    public long getBudget() {
+        return this.budget;
+    }
+
+    public long getSlabBytes() {
+        synchronized (this.freeBlocks) {
+            return this.slabBytes;
+        }
+    }
+
+    public long getUsedBytes() {
+        return this.usedBlocks.get()*this.blockSize;
+    }
+
+    public long getOverflowBytes() {
+        return this.overflowCount.get()*this.blockSize;
+    }
+
+    public long getAllocationCount() {
+        return this.allocations.sum();
+    }
+
+    public long getThreadCacheHitCount() {
+        return this.threadCacheHits.sum();
+    }
+
+    public String getDebugString() {
+        return "Used/slab/budget: " + (this.getUsedBytes()>>20) + "/" + (this.getSlabBytes()>>20) + "/" + (this.budget>>20)
+                + "MB overflow: " + (this.getOverflowBytes()>>20) + "MB local: " + this.getThreadCacheHitCount() + "/" + this.getAllocationCount();
+    }
+}
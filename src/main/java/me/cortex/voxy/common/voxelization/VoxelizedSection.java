@@ -5,6 +5,11 @@ import me.cortex.voxy.common.world.other.Mapper;
 
 //16x16x16 block section
 public class VoxelizedSection {
+    //Lod levels carried by a section, 16x16x16 down to 1x1x1
+    public static final int MIP_LEVELS = 5;
+    static final int SIZE = 16*16*16 + 8*8*8 + 4*4*4 + 2*2*2 + 1;
+    private static final long[] AIR = new long[SIZE];
+
     public final int x;
     public final int y;
     public final int z;
@@ -24,15 +29,30 @@ public class VoxelizedSection {
         return (y<<(size<<1))|(z<<size)|(x);
     }
 
-    public long get(int lvl, int x, int y, int z) {
+    //Index into getData(), rows along x are contiguous
+    public int getIndex(int lvl, int x, int y, int z) {
         int offset = lvl==1?(1<<12):0;
         offset |= lvl==2?(1<<12)|(1<<9):0;
         offset |= lvl==3?(1<<12)|(1<<9)|(1<<6):0;
         offset |= lvl==4?(1<<12)|(1<<9)|(1<<6)|(1<<3):0;
-        return this.section[getIdx(x, y, z, 0, 4-lvl) + offset];
+        return getIdx(x, y, z, 0, 4-lvl) + offset;
+    }
+
+    public long get(int lvl, int x, int y, int z) {
+        return this.section[this.getIndex(lvl, x, y, z)];
+    }
+
+    //The backing array of all the mip levels, must not be modified
+    public long[] getData() {
+        return this.section;
+    }
+
+    //All air section sharing a single backing array, must never be written to
+    public static VoxelizedSection createAir(int x, int y, int z) {
+        return new VoxelizedSection(AIR, x, y, z);
     }
 
-    public static VoxelizedSection createEmpty(int x, int y, int z) {
-        return new VoxelizedSection(new long[16*16*16 + 8*8*8 + 4*4*4 + 2*2*2 + 1], x, y, z);
+    public boolean isAir() {
+        return this.section == AIR;
     }
 }
@@ -22,7 +22,7 @@ public class WorldConversionFactory {
                                            int sz) {
         var blockCache = BLOCK_CACHE.get();
 
-        var section = VoxelizedSection.createEmpty(sx, sy, sz);
+        var section = new VoxelizedSection(new long[VoxelizedSection.SIZE], sx, sy, sz);
         var data = section.section;
 
         int blockId = -1;
@@ -1,100 +1,210 @@
 package me.cortex.voxy.common.world;
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import me.cortex.voxy.common.util.VolatileHolder;
+import me.cortex.voxy.common.util.ConcurrentLongTable;
 import me.cortex.voxy.common.world.other.Mapper;
 
-import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
 
 public class ActiveSectionTracker {
     //Deserialize into the supplied section, returns true on success, false on failure
     public interface SectionLoader {int load(WorldSection section);}
 
-    //Loaded section world cache, TODO: get rid of VolatileHolder and use something more sane
+    //Placeholder held in the table while a section is loaded, completed with the loaded section (or the load failure)
+    // threads wanting the section park on it or chain onto it
+    private static final class LoadingSection {
+        final long key;
+        final CompletableFuture<WorldSection> loaded = new CompletableFuture<>();
 
-    private final Long2ObjectOpenHashMap<VolatileHolder<WorldSection>>[] loadedSectionCache;
+        private LoadingSection(long key) {
+            this.key = key;
+        }
+    }
+
+    //Loaded section world cache, entries are either a WorldSection or a LoadingSection
+    private final ConcurrentLongTable<Object> loadedSectionCache;
     private final SectionLoader loader;
-    //private final SectionDataCache dataCache;
+    //Executor that async acquires do the storage reads and deserialization on
+    private final Executor ioExecutor;
+    //Cache of unloaded sections, null when disabled
+    private final SectionDataCache dataCache;
+    //Completes the placeholder of a section thats been moved into the data cache, waiters retry and load from the cache
+    private static final IllegalStateException SECTION_UNLOADED = new IllegalStateException("Section unloaded");
 
-    @SuppressWarnings("unchecked")
     public ActiveSectionTracker(int numSlicesBits, SectionLoader loader) {
+        //Without an io executor async acquires load on the calling thread
+        this(numSlicesBits, loader, Runnable::run, 0);
+    }
+
+    public ActiveSectionTracker(int numSlicesBits, SectionLoader loader, Executor ioExecutor, long dataCacheBytes) {
         this.loader = loader;
-        this.loadedSectionCache = new Long2ObjectOpenHashMap[1<<numSlicesBits];
-        for (int i = 0; i < this.loadedSectionCache.length; i++) {
-            this.loadedSectionCache[i] = new Long2ObjectOpenHashMap<>(1024);
+        this.ioExecutor = ioExecutor;
+        this.dataCache = dataCacheBytes > 0 ? new SectionDataCache(numSlicesBits, dataCacheBytes) : null;
+        this.loadedSectionCache = new ConcurrentLongTable<>(numSlicesBits, 1024, entry -> entry instanceof WorldSection section ? section.key : ((LoadingSection) entry).key);
+    }
+
+    //Loads the section for a placeholder this thread inserted, returns the acquired section or null if its empty and nullOnEmpty
+    private WorldSection load(LoadingSection loading, int lvl, int x, int y, int z, boolean nullOnEmpty) {
+        var section = new WorldSection(lvl, x, y, z, this);
+        int status;
+        try {
+            status = this.dataCache == null ? -1 : this.dataCache.load(section);
+            if (status == -1) {//Cache miss
+                status = this.loader.load(section);
+            }
+        } catch (Throwable e) {
+            //Drop the placeholder so the next acquire retries the load, and wake anything waiting on it
+            this.loadedSectionCache.remove(loading);
+            loading.loaded.completeExceptionally(e);
+            throw e;
         }
+
+        if (status < 0) {
+            //TODO: Instead if throwing an exception do something better, like attempting to regen
+            //throw new IllegalStateException("Unable to load section: ");
+            System.err.println("Unable to load section " + section.key + " setting to air");
+            status = 1;
+        }
+        if (status == 1) {
+            //We need to set the data to air as it is undefined state
+            section.fill(Mapper.withLight(Mapper.AIR, 15));//Since lighting is inverted
+            section.loadedEmpty = true;
+        }
+        section.acquire();
+        if (!this.loadedSectionCache.replace(loading, section)) {
+            throw new IllegalStateException("Section load placeholder removed while loading");
+        }
+        loading.loaded.complete(section);
+        if (nullOnEmpty && status == 1) {//If its air return null as stated, release the section aswell
+            section.release();
+            return null;
+        }
+        return section;
     }
 
     public WorldSection acquire(int lvl, int x, int y, int z, boolean nullOnEmpty) {
         long key = WorldEngine.getWorldSectionId(lvl, x, y, z);
-        var cache = this.loadedSectionCache[this.getCacheArrayIndex(key)];
-        VolatileHolder<WorldSection> holder = null;
-        boolean isLoader = false;
-        synchronized (cache) {
-            holder = cache.get(key);
-            if (holder == null) {
-                holder = new VolatileHolder<>();
-                cache.put(key, holder);
-                isLoader = true;
+        while (true) {
+            var entry = this.loadedSectionCache.get(key);
+            if (entry == null) {
+                //If this thread inserts the placeholder then its the thread to load the section
+                var loading = new LoadingSection(key);
+                entry = this.loadedSectionCache.putIfAbsent(loading);
+                if (entry == null) {
+                    return this.load(loading, lvl, x, y, z, nullOnEmpty);
+                }
+            }
+            WorldSection section;
+            if (entry instanceof LoadingSection loading) {
+                //Park until the loading thread is done, if it failed retry the load ourselves
+                try {
+                    section = loading.loaded.join();
+                } catch (CompletionException e) {
+                    continue;
+                }
+            } else {
+                section = (WorldSection) entry;
             }
-            var section = holder.obj;
-            if (section != null) {
-                section.acquire();
+            if (section.tryAcquire()) {
                 return section;
             }
+            this.onFreedSection(section);
         }
-        //If this thread was the one to create the reference then its the thread to load the section
-        if (isLoader) {
-            var section = new WorldSection(lvl, x, y, z, this);
-            int status = -1;//this.dataCache.load(section);
-            if (status == -1) {//Cache miss
-                status = this.loader.load(section);
-            }
+    }
 
-            if (status < 0) {
-                //TODO: Instead if throwing an exception do something better, like attempting to regen
-                //throw new IllegalStateException("Unable to load section: ");
-                System.err.println("Unable to load section " + section.key + " setting to air");
-                status = 1;
-            }
-            if (status == 1) {
-                //We need to set the data to air as it is undefined state
-                Arrays.fill(section.data, Mapper.withLight(Mapper.AIR, 15));//Since lighting is inverted
+    //Same as acquire but the storage read and deserialization is done on the io executor, concurrent acquires of the same
+    // section share the single load, the returned future completes with the acquired section which the consumer must release
+    public CompletableFuture<WorldSection> acquireAsync(int lvl, int x, int y, int z, boolean nullOnEmpty) {
+        long key = WorldEngine.getWorldSectionId(lvl, x, y, z);
+        while (true) {
+            var entry = this.loadedSectionCache.get(key);
+            if (entry == null) {
+                var loading = new LoadingSection(key);
+                entry = this.loadedSectionCache.putIfAbsent(loading);
+                if (entry == null) {
+                    try {
+                        return CompletableFuture.supplyAsync(()->this.load(loading, lvl, x, y, z, nullOnEmpty), this.ioExecutor);
+                    } catch (RejectedExecutionException e) {
+                        //The executor is shut down, drop the placeholder so nothing parks on it forever
+                        this.loadedSectionCache.remove(loading);
+                        loading.loaded.completeExceptionally(e);
+                        throw e;
+                    }
+                }
             }
-            section.acquire();
-            holder.obj = section;
-            if (nullOnEmpty && status == 1) {//If its air return null as stated, release the section aswell
-                section.release();
-                return null;
+            if (entry instanceof LoadingSection loading) {
+                //Another thread is loading the section, chain onto its load, if the section got unloaded before it could
+                // be acquired (or the load failed) start again
+                return loading.loaded.handle((section, e) -> {
+                    if (e == null && section.tryAcquire()) {
+                        return CompletableFuture.completedFuture(section);
+                    }
+                    return this.acquireAsync(lvl, x, y, z, nullOnEmpty);
+                }).thenCompose(Function.identity());
             }
-            return section;
-        } else {
-            WorldSection section = null;
-            while ((section = holder.obj) == null)
-                Thread.onSpinWait();
-
-            synchronized (cache) {
-                if (section.tryAcquire()) {
-                    return section;
-                }
+            var section = (WorldSection) entry;
+            if (section.tryAcquire()) {
+                return CompletableFuture.completedFuture(section);
             }
-            return this.acquire(lvl, x, y, z, nullOnEmpty);
+            this.onFreedSection(section);
+        }
+    }
+
+    //Called when an acquire finds a section that was freed before it could acquire it
+    private void onFreedSection(WorldSection section) {
+        if (this.dataCache == null) {
+            //Remove it for the unloading thread and retry
+            this.loadedSectionCache.remove(section);
         }
+        //With the data cache the section was already swapped for a placeholder before it was freed, the retry parks on it
     }
 
     void tryUnload(WorldSection section) {
-        var cache = this.loadedSectionCache[this.getCacheArrayIndex(section.key)];
-        synchronized (cache) {
+        if (this.dataCache == null) {
+            //Once freed no acquire can succeed on the section, so its removed without holding any lock
+            if (!section.trySetFreed()) {
+                return;
+            }
+            section.freeData();
+            //An acquire that saw the freed section may have already removed it
+            this.loadedSectionCache.remove(section);
+            return;
+        }
+        while (true) {
+            //Reloads wait on a placeholder until the section is in the cache, otherwise an older cached copy could be
+            // loaded or the cache could be populated after the section was reloaded and changed
+            //The placeholder goes in before the section is freed so acquires never find a freed section in the table
+            var unloading = new LoadingSection(section.key);
+            if (!this.loadedSectionCache.replace(section, unloading)) {
+                //Another release of the section is unloading it
+                return;
+            }
             if (section.trySetFreed()) {
-                if (cache.remove(section.key).obj != section) {
-                    throw new IllegalStateException("Removed section not the same as the referenced section in the cache");
+                try {
+                    this.dataCache.put(section, section.loadedEmpty);
+                } finally {
+                    section.freeData();
+                    this.loadedSectionCache.remove(unloading);
+                    unloading.loaded.completeExceptionally(SECTION_UNLOADED);
                 }
+                return;
             }
+            //Acquired through a reference taken before the swap, put it back and wake anything that parked on the
+            // placeholder so it retries and finds the section
+            this.loadedSectionCache.replace(unloading, section);
+            unloading.loaded.completeExceptionally(SECTION_UNLOADED);
+            if (section.getRefCount() != 0) {
+                return;
+            }
+            //Released again while the placeholder was in, that release couldnt swap in its own so unload it here
         }
     }
 
-    private int getCacheArrayIndex(long pos) {
-        return (int) (mixStafford13(pos) & (this.loadedSectionCache.length-1));
+    public SectionDataCache getDataCache() {
+        return this.dataCache;
     }
 
     public static long mixStafford13(long seed) {
@@ -104,11 +214,11 @@ public class ActiveSectionTracker {
     }
 
     public int[] getCacheCounts() {
-        int[] res = new int[this.loadedSectionCache.length];
-        for (int i = 0; i < this.loadedSectionCache.length; i++) {
-            res[i] = this.loadedSectionCache[i].size();
-        }
-        return res;
+        return this.loadedSectionCache.getSegmentSizes();
+    }
+
+    public int getLoadedCount() {
+        return this.loadedSectionCache.size();
     }
 
 
@@ -1,48 +1,157 @@
 package me.cortex.voxy.common.world;
 
-import it.unimi.dsi.fastutil.longs.Long2ShortOpenHashMap;
-import it.unimi.dsi.fastutil.longs.LongArrayList;
+import me.cortex.voxy.common.world.other.Mapper;
 import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
-import static org.lwjgl.util.zstd.Zstd.*;
-
+//Section codec, each thread has its own instance so that all the scratch state is reused between calls and
+// serialization does not allocate anything on the java heap
 public class SaveLoadSystem {
+    //The format version is stored in the low 4 bits of the serialized key, these bits are always 0 in a section key
+    // so the original (version 0) format, which wrote the raw key, is implicitly version 0
+    private static final long VERSION_MASK = 0xF;
+    //Version 0: 16 bit lut index per voxel
+    private static final int VERSION_SHORT_INDICES = 0;
+    //Version 1: lut indices bit packed at ceil(log2(lutLen)) bits, no index payload when there is only 1 lut entry
+    private static final int VERSION_PACKED_INDICES = 1;
+
+    private static final int SECTION_VOLUME = 32*32*32;
+    //Open addressing table used to build the lut, twice the max lut size to keep probe lengths short
+    private static final int TABLE_SIZE = SECTION_VOLUME*2;
+
+    private static final ThreadLocal<SaveLoadSystem> CODECS = ThreadLocal.withInitial(SaveLoadSystem::new);
+
+    private final short[] indices = new short[SECTION_VOLUME];
+    //Snapshot of the section being encoded
+    private final long[] sectionData = new long[SECTION_VOLUME];
+    private final long[] lut = new long[SECTION_VOLUME];
+    //Value to lut index table, a slot is only valid if its stamp matches the current generation, this avoids
+    // needing to clear the table between sections
+    private final long[] tableKeys = new long[TABLE_SIZE];
+    private final short[] tableValues = new short[TABLE_SIZE];
+    private final int[] tableStamps = new int[TABLE_SIZE];
+    private int generation;
+
+    private SaveLoadSystem() {}
 
-    //TODO: Cache like long2short and the short and other data to stop allocs
     public static ByteBuffer serialize(WorldSection section) {
-        var data = section.copyData();
-        var compressed = new short[data.length];
-        Long2ShortOpenHashMap LUT = new Long2ShortOpenHashMap(data.length);
-        LongArrayList LUTVAL = new LongArrayList();
-        for (int i = 0; i < data.length; i++) {
-            long block = data[i];
-            short mapping = LUT.computeIfAbsent(block, id->{
-                LUTVAL.add(id);
-                return (short)(LUTVAL.size()-1);
-            });
-            compressed[i] = mapping;
+        return CODECS.get().encode(section);
+    }
+
+    public static boolean deserialize(WorldSection section, ByteBuffer data, boolean ignoreMismatchPosition) {
+        return CODECS.get().decode(section, data, ignoreMismatchPosition);
+    }
+
+    //Number of bits needed to store an index into a lut of the given size
+    private static int getIndexBits(int lutLen) {
+        return lutLen <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(lutLen - 1);
+    }
+
+    private static int tableSlot(long value) {
+        return (int) (ActiveSectionTracker.mixStafford13(value)&(TABLE_SIZE-1));
+    }
+
+    //Builds the lut and index array directly from the section data, each voxel is only read once so the encoded
+    // indices, lut and hash are always self consistent even if the section is being concurrently written to
+    private int buildLut(long[] data) {
+        if (++this.generation == 0) {
+            Arrays.fill(this.tableStamps, 0);
+            this.generation = 1;
+        }
+        int gen = this.generation;
+        int lutLen = 0;
+        long lastValue = 0;
+        short lastIndex = -1;
+        for (int i = 0; i < SECTION_VOLUME; i++) {
+            long value = data[i];
+            if (lastIndex != -1 && value == lastValue) {
+                this.indices[i] = lastIndex;
+                continue;
+            }
+            int slot = tableSlot(value);
+            while (this.tableStamps[slot] == gen && this.tableKeys[slot] != value) {
+                slot = (slot+1)&(TABLE_SIZE-1);
+            }
+            short index;
+            if (this.tableStamps[slot] == gen) {
+                index = this.tableValues[slot];
+            } else {
+                index = (short) lutLen;
+                this.lut[lutLen++] = value;
+                this.tableStamps[slot] = gen;
+                this.tableKeys[slot] = value;
+                this.tableValues[slot] = index;
+            }
+            this.indices[i] = index;
+            lastValue = value;
+            lastIndex = index;
         }
-        long[] lut = LUTVAL.toLongArray();
-        ByteBuffer raw = MemoryUtil.memAlloc(compressed.length*2+lut.length*8+512);
+        return lutLen;
+    }
 
-        long hash = section.key^(lut.length*1293481298141L);
-        raw.putLong(section.key);
-        raw.putInt(lut.length);
-        for (long id : lut) {
+    //Uniform sections have a single lut entry and no index payload, so only the hash needs computing
+    private static ByteBuffer encodeUniform(long key, long id) {
+        ByteBuffer raw = MemoryUtil.memAlloc(8+4+8+8);
+        long hash = key^1293481298141L;
+        raw.putLong(key|VERSION_PACKED_INDICES);
+        raw.putInt(1);
+        raw.putLong(id);
+        hash *= 1230987149811L;
+        hash += 12831;
+        hash ^= id;
+        for (int i = 0; i < SECTION_VOLUME; i++) {
+            hash *= 1230987149811L;
+            hash += 12831;
+            hash ^= id;
+        }
+        raw.putLong(hash);
+        return raw.rewind();
+    }
+
+    public ByteBuffer encode(WorldSection section) {
+        long uniformId = section.getUniformId();
+        if (uniformId != Mapper.UNKNOWN_MAPPING) {
+            return encodeUniform(section.key, uniformId);
+        }
+        section.copyDataTo(this.sectionData);
+        int lutLen = this.buildLut(this.sectionData);
+        long[] lut = this.lut;
+        short[] indices = this.indices;
+        int bits = getIndexBits(lutLen);
+        ByteBuffer raw = MemoryUtil.memAlloc(8+4+lutLen*8+((SECTION_VOLUME*bits)>>3)+8);
+
+        long hash = section.key^(lutLen*1293481298141L);
+        raw.putLong(section.key|VERSION_PACKED_INDICES);
+        raw.putInt(lutLen);
+        for (int i = 0; i < lutLen; i++) {
+            long id = lut[i];
             raw.putLong(id);
             hash *= 1230987149811L;
             hash += 12831;
             hash ^= id;
         }
 
-        for (int i = 0; i < compressed.length; i++) {
-            short block = compressed[i];
-            raw.putShort(block);
+        //Indices are written as a contiguous little endian bit stream in 64 bit words, since the section volume is a
+        // multiple of 64 the stream always ends on a word boundary
+        long word = 0;
+        int wordBits = 0;
+        for (int i = 0; i < SECTION_VOLUME; i++) {
+            short block = indices[i];
             hash *= 1230987149811L;
             hash += 12831;
-            hash ^= (block*1827631L) ^ data[i];
+            hash ^= (block*1827631L) ^ lut[block];
+            if (bits == 0) {
+                continue;
+            }
+            word |= ((long)block)<<wordBits;
+            wordBits += bits;
+            if (wordBits >= 64) {
+                raw.putLong(word);
+                wordBits -= 64;
+                word = wordBits==0?0:(((long)block)>>>(bits-wordBits));
+            }
         }
 
         raw.putLong(hash);
@@ -53,12 +162,22 @@ public class SaveLoadSystem {
         return raw;
     }
 
-    public static boolean deserialize(WorldSection section, ByteBuffer data, boolean ignoreMismatchPosition) {
+    public boolean decode(WorldSection section, ByteBuffer data, boolean ignoreMismatchPosition) {
         long hash = 0;
-        long key = data.getLong();
+        long rawKey = data.getLong();
+        long key = rawKey&~VERSION_MASK;
+        int version = (int) (rawKey&VERSION_MASK);
+        if (version != VERSION_SHORT_INDICES && version != VERSION_PACKED_INDICES) {
+            System.err.println("Unknown section format version " + version + " removing region");
+            return false;
+        }
         int lutLen = data.getInt();
-        long[] lut = new long[lutLen];
-        hash = key^(lut.length*1293481298141L);
+        if (lutLen <= 0 || lutLen > SECTION_VOLUME) {
+            System.err.println("Section had an invalid lut size of " + lutLen + " removing region");
+            return false;
+        }
+        long[] lut = this.lut;
+        hash = key^(lutLen*1293481298141L);
         for (int i = 0; i < lutLen; i++) {
             lut[i] = data.getLong();
             hash *= 1230987149811L;
@@ -72,12 +191,58 @@ public class SaveLoadSystem {
             return false;
         }
 
-        for (int i = 0; i < section.data.length; i++) {
-            short lutId = data.getShort();
-            section.data[i] = lut[lutId];
-            hash *= 1230987149811L;
-            hash += 12831;
-            hash ^= (lutId*1827631L) ^ section.data[i];
+        //Indices are decoded into the scratch and only given to the section once the hash has been verified
+        short[] indices = this.indices;
+        if (version == VERSION_SHORT_INDICES) {
+            for (int i = 0; i < SECTION_VOLUME; i++) {
+                short lutId = data.getShort();
+                if (lutId < 0 || lutId >= lutLen) {
+                    System.err.println("Section lut index out of bounds removing region");
+                    return false;
+                }
+                indices[i] = lutId;
+                hash *= 1230987149811L;
+                hash += 12831;
+                hash ^= (lutId*1827631L) ^ lut[lutId];
+            }
+        } else if (lutLen == 1) {
+            //Uniform, no index payload and the section is filled from the lut alone
+            long id = lut[0];
+            for (int i = 0; i < SECTION_VOLUME; i++) {
+                hash *= 1230987149811L;
+                hash += 12831;
+                hash ^= id;
+            }
+        } else {
+            int bits = getIndexBits(lutLen);
+            long mask = (1L<<bits)-1;
+            long word = 0;
+            int wordBits = 0;
+            for (int i = 0; i < SECTION_VOLUME; i++) {
+                if (wordBits == 0) {
+                    word = data.getLong();
+                    wordBits = 64;
+                }
+                int lutId = (int) (word&mask);
+                if (wordBits < bits) {
+                    //Index straddles two words
+                    word = data.getLong();
+                    lutId |= (int) ((word<<wordBits)&mask);
+                    word >>>= bits-wordBits;
+                    wordBits = 64-(bits-wordBits);
+                } else {
+                    word >>>= bits;
+                    wordBits -= bits;
+                }
+                if (lutId >= lutLen) {
+                    System.err.println("Section lut index out of bounds removing region");
+                    return false;
+                }
+                indices[i] = (short) lutId;
+                hash *= 1230987149811L;
+                hash += 12831;
+                hash ^= (lutId*1827631L) ^ lut[lutId];
+            }
         }
 
         long expectedHash = data.getLong();
@@ -92,6 +257,7 @@ public class SaveLoadSystem {
             System.err.println("Decompressed section had excess data removing region");
             return false;
         }
+        section.loadPalette(lut, lutLen, indices);
         return true;
     }
 }
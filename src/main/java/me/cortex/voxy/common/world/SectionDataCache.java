@@ -1,48 +1,164 @@
 package me.cortex.voxy.common.world;
 
 
-import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
-import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Reference2LongOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import me.cortex.voxy.common.world.other.Mapper;
+import org.lwjgl.system.MemoryUtil;
 
-import java.lang.ref.ReferenceQueue;
-import java.lang.ref.SoftReference;
+import java.util.concurrent.atomic.LongAdder;
 
+//Second level cache of recently unloaded sections, so that sections bouncing in and out of the tracker dont cost a
+// storage read, decompress and deserialize on every reload
+//Palette sections are cached as is, the cache takes over the palette of the freed section, raw sections are palette
+// compressed, entries are kept within a byte budget evicting the least recently unloaded first
+//A section is only cached once unloaded, which only happens after any pending save of it is written, and its entry is
+// taken out again when its reloaded, so the cache never holds data older than the storage
 public class SectionDataCache {
-    private record MapPair(Reference2LongOpenHashMap<SoftReference<long[]>> ref2pos, Long2ObjectMap<SoftReference<long[]>> pos2ref) {
-        public MapPair() {
-            this(new Reference2LongOpenHashMap<>(), new Long2ObjectOpenHashMap<>());
+    private static final int VOLUME = 32*32*32;
+    private static final long AIR_FILL = Mapper.withLight(Mapper.AIR, 15);
+    //Rough per entry overhead of the entry object, arrays and map slot
+    private static final int ENTRY_OVERHEAD = 96;
+
+    //Either the palette of a palette section, or the palette and per voxel indices of a raw section
+    private record Entry(WorldSection.Palette palette, long[] rawIds, short[] rawIndices, boolean empty, int bytes) {}
+
+    private static final class Slice {
+        private final Long2ObjectLinkedOpenHashMap<Entry> entries = new Long2ObjectLinkedOpenHashMap<>();
+        private long bytes;
+    }
+
+    private static final ThreadLocal<Long2IntOpenHashMap> PALETTE_SCRATCH = ThreadLocal.withInitial(()->{
+        var map = new Long2IntOpenHashMap();
+        map.defaultReturnValue(-1);
+        return map;
+    });
+
+    private final Slice[] slices;
+    private final long sliceBudget;
+    private final long maxBytes;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public SectionDataCache(int sliceBits, long maxBytes) {
+        this.maxBytes = maxBytes;
+        this.slices = new Slice[1<<sliceBits];
+        for (int i = 0; i < this.slices.length; i++) {
+            this.slices[i] = new Slice();
         }
+        this.sliceBudget = maxBytes/this.slices.length;
+    }
+
+    private Slice getSlice(long pos) {
+        return this.slices[(int) (ActiveSectionTracker.mixStafford13(pos)&(this.slices.length-1))];
     }
-    private final MapPair[] maps;
-    private final ReferenceQueue<long[]> cleanupQueue;
-    public SectionDataCache(int sliceBits) {
-        this.cleanupQueue = new ReferenceQueue<>();
-        this.maps = new MapPair[1<<sliceBits];
-        for (int i = 0; i < this.maps.length; i++) {
-            this.maps[i] = new MapPair();
+
+    //Loads the section from the cache, removing the entry, returns -1 on a miss, otherwise the load status the
+    // section originally had, 1 if it didnt exist in storage and 0 if it did
+    public int load(WorldSection section) {
+        var slice = this.getSlice(section.key);
+        Entry entry;
+        synchronized (slice) {
+            entry = slice.entries.remove(section.key);
+            if (entry != null) {
+                slice.bytes -= entry.bytes;
+            }
+        }
+        if (entry == null) {
+            this.misses.increment();
+            return -1;
+        }
+        this.hits.increment();
+        if (entry.palette != null) {
+            section.loadPalette(entry.palette);
+        } else {
+            section.loadPalette(entry.rawIds, entry.rawIds.length, entry.rawIndices);
         }
+        return entry.empty?1:0;
     }
 
-    private MapPair getMap(long pos) {
-        return this.maps[(int) (ActiveSectionTracker.mixStafford13(pos)&(this.maps.length-1))];
+    //Caches the data of a freed section, loadedEmpty is if the section didnt exist in storage when it was loaded
+    public void put(WorldSection section, boolean loadedEmpty) {
+        var palette = section.takePalette();
+        Entry entry;
+        if (palette != null) {
+            //Sections that didnt exist are filled with air, but only report as not existing if they werent changed since
+            boolean empty = loadedEmpty && palette.bits == 0 && palette.ids[0] == AIR_FILL;
+            entry = new Entry(palette, null, null, empty, ENTRY_OVERHEAD + palette.getByteSize());
+        } else {
+            entry = encode(section.getRawDataPtr());
+        }
+        if (entry.bytes > this.sliceBudget) {
+            return;
+        }
+        var slice = this.getSlice(section.key);
+        synchronized (slice) {
+            var old = slice.entries.putAndMoveToLast(section.key, entry);
+            if (old != null) {
+                slice.bytes -= old.bytes;
+            }
+            slice.bytes += entry.bytes;
+            while (slice.bytes > this.sliceBudget) {
+                slice.bytes -= slice.entries.removeFirst().bytes;
+                this.evictions.increment();
+            }
+        }
     }
 
-    public int loadAndPut(WorldSection section) {
-        var map = this.getMap(section.key);
-        synchronized (map) {
-            var entry = map.pos2ref.get(section.key);
-            if (entry == null) {//No entry in cache so put it in cache
-                map.pos2ref.put(section.key, new SoftReference<>(section.data));
-                return -1;
+    private static Entry encode(long data) {
+        var paletteIndex = PALETTE_SCRATCH.get();
+        var indices = new short[VOLUME];
+        var palette = new LongArrayList();
+        paletteIndex.clear();
+        //Neighbouring voxels are mostly the same so only changes need a palette lookup
+        long last = MemoryUtil.memGetLong(data);
+        int lastIndex = 0;
+        paletteIndex.put(last, 0);
+        palette.add(last);
+        for (int i = 0; i < VOLUME; i++) {
+            long id = MemoryUtil.memGetLong(data + i*8L);
+            if (id != last) {
+                int index = paletteIndex.get(id);
+                if (index == -1) {
+                    index = palette.size();
+                    paletteIndex.put(id, index);
+                    palette.add(id);
+                }
+                last = id;
+                lastIndex = index;
             }
-            //var data = entry.data.get();
-            //if (data == null) {
-            //    map.remove(section.key);
-            //    return -1;
-            //}
-            //System.arraycopy(data, 0, section.data, 0, data.length);
-            return 0;
+            indices[i] = (short) lastIndex;
         }
+        var ids = palette.toLongArray();
+        return new Entry(null, ids, indices, false, ENTRY_OVERHEAD + ids.length*8 + indices.length*2);
+    }
+
+    public long getCachedBytes() {
+        long bytes = 0;
+        for (var slice : this.slices) {
+            synchronized (slice) {
+                bytes += slice.bytes;
+            }
+        }
+        return bytes;
+    }
+
+    public long getHitCount() {
+        return this.hits.sum();
+    }
+
+    public long getMissCount() {
+        return this.misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return this.evictions.sum();
+    }
+
+    public String getDebugString() {
+        return "Section cache H/M/E: " + this.getHitCount() + "/" + this.getMissCount() + "/" + this.getEvictionCount()
+                + " " + (this.getCachedBytes()>>20) + "/" + (this.maxBytes>>20) + "MB";
     }
 }
@@ -3,12 +3,19 @@ package me.cortex.voxy.common.world;
 import me.cortex.voxy.common.storage.StorageCompressor;
 import me.cortex.voxy.common.voxelization.VoxelizedSection;
 import me.cortex.voxy.common.world.other.Mapper;
+import me.cortex.voxy.common.world.service.MipPropagationService;
 import me.cortex.voxy.common.world.service.SectionSavingService;
 import me.cortex.voxy.common.world.service.VoxelIngestService;
 import me.cortex.voxy.common.storage.StorageBackend;
-import org.lwjgl.system.MemoryUtil;
 
-import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 //Use an LMDB backend to store the world, use a local inmemory cache for lod sections
@@ -19,8 +26,11 @@ public class WorldEngine {
     private final ActiveSectionTracker sectionTracker;
     public final VoxelIngestService ingestService;
     public final SectionSavingService savingService;
+    //Builds the levels past the VoxelizedSection levels, null if there are none
+    public final MipPropagationService mipService;
     private Consumer<WorldSection> dirtyCallback;
     private final int maxMipLevels;
+    private final ExecutorService ioExecutor;
 
 
     public void setDirtyCallback(Consumer<WorldSection> tracker) {
@@ -30,38 +40,55 @@ public class WorldEngine {
     public Mapper getMapper() {return this.mapper;}
 
     public WorldEngine(StorageBackend storageBackend, int ingestWorkers, int savingServiceWorkers, int maxMipLayers) {
+        this(storageBackend, ingestWorkers, savingServiceWorkers, 2, maxMipLayers, 0, 0, 0);
+    }
+
+    public WorldEngine(StorageBackend storageBackend, int ingestWorkers, int savingServiceWorkers, int ioWorkers, int maxMipLayers, long saveCoalesceWindowMs, long maxSaveDelayMs, long sectionCacheBytes) {
+        if (maxMipLayers < 1 || maxMipLayers > 16) {
+            throw new IllegalArgumentException("Mip levels must fit in the 4 bit level of a section key, got " + maxMipLayers);
+        }
         this.maxMipLevels = maxMipLayers;
         this.storage = storageBackend;
         this.mapper = new Mapper(this.storage);
-        //4 cache size bits means that the section tracker has 16 separate maps that it uses
-        this.sectionTracker = new ActiveSectionTracker(3, this::unsafeLoadSection);
+        var ioThreadCounter = new AtomicInteger();
+        this.ioExecutor = Executors.newFixedThreadPool(Math.max(1, ioWorkers), runnable -> {
+            var thread = new Thread(runnable);
+            thread.setDaemon(true);
+            thread.setName("Section io #" + ioThreadCounter.getAndIncrement());
+            return thread;
+        });
+        //Segment the section tracker table by the core count, segments only contend when they are rebuilt
+        int trackerSegmentBits = 32-Integer.numberOfLeadingZeros(Runtime.getRuntime().availableProcessors()*4-1);
+        this.sectionTracker = new ActiveSectionTracker(trackerSegmentBits, this::unsafeLoadSection, this.ioExecutor, sectionCacheBytes);
 
-        this.savingService = new SectionSavingService(this, savingServiceWorkers);
+        this.savingService = new SectionSavingService(this, savingServiceWorkers, saveCoalesceWindowMs, maxSaveDelayMs);
+        if (maxMipLayers > VoxelizedSection.MIP_LEVELS) {
+            this.mipService = new MipPropagationService(this, VoxelizedSection.MIP_LEVELS, maxMipLayers, saveCoalesceWindowMs);
+        } else {
+            this.mipService = null;
+        }
         this.ingestService  = new VoxelIngestService(this, ingestWorkers);
     }
 
     private int unsafeLoadSection(WorldSection into) {
-        var data = this.storage.getSectionData(into.key);
-        if (data != null) {
-            try {
-                if (!SaveLoadSystem.deserialize(into, data, true)) {
-                    this.storage.deleteSectionData(into.key);
-                    //TODO: regenerate the section from children
-                    Arrays.fill(into.data, Mapper.AIR);
-                    System.err.println("Section " + into.lvl + ", " + into.x + ", " + into.y + ", " + into.z + " was unable to load, removing");
-                    return -1;
-                } else {
-                    return 0;
-                }
-            } finally {
-                MemoryUtil.memFree(data);
+        //Deserialize straight from the storage scoped view of the data
+        int status = this.storage.visitSectionData(into.key, data -> {
+            if (data == null) {
+                //TODO: if we need to fetch an lod from a server, send the request here and block until the request is finished
+                // the response should be put into the local db so that future data can just use that
+                // the server can also send arbitrary updates to the client for arbitrary lods
+                return 1;
             }
-        } else {
-            //TODO: if we need to fetch an lod from a server, send the request here and block until the request is finished
-            // the response should be put into the local db so that future data can just use that
-            // the server can also send arbitrary updates to the client for arbitrary lods
-            return 1;
+            return SaveLoadSystem.deserialize(into, data, true) ? 0 : -1;
+        });
+        if (status == -1) {
+            //Must be done outside of the visit as the storage may be within a read transaction
+            this.storage.deleteSectionData(into.key);
+            //TODO: regenerate the section from children
+            into.fill(Mapper.AIR);
+            System.err.println("Section " + into.lvl + ", " + into.x + ", " + into.y + ", " + into.z + " was unable to load, removing");
         }
+        return status;
     }
 
     public WorldSection acquireIfExists(int lvl, int x, int y, int z) {
@@ -72,6 +99,16 @@ public class WorldEngine {
         return this.sectionTracker.acquire(lvl, x, y, z, false);
     }
 
+    //Async variants of acquire and acquireIfExists, the section is loaded on the io executor so the calling thread
+    // never blocks on storage, the future completes with an acquired section that must be released
+    public CompletableFuture<WorldSection> acquireIfExistsAsync(int lvl, int x, int y, int z) {
+        return this.sectionTracker.acquireAsync(lvl, x, y, z, true);
+    }
+
+    public CompletableFuture<WorldSection> acquireAsync(int lvl, int x, int y, int z) {
+        return this.sectionTracker.acquireAsync(lvl, x, y, z, false);
+    }
+
     //TODO: Fixme/optimize, cause as the lvl gets higher, the size of x,y,z gets smaller so i can dynamically compact the format
     // depending on the lvl, which should optimize colisions and whatnot
     public static long getWorldSectionId(int lvl, int x, int y, int z) {
@@ -100,33 +137,22 @@ public class WorldEngine {
         if (this.dirtyCallback != null) {
             this.dirtyCallback.accept(section);
         }
-        //TODO: add an option for having synced saving, that is when call enqueueSave, that will instead, instantly
-        // save to the db, this can be useful for just reducing the amount of thread pools in total
-        // might have some issues with threading if the same section is saved from multiple threads?
+        //With 0 saving workers this saves synchronously on the calling thread
         this.savingService.enqueueSave(section);
+        if (this.mipService != null && section.lvl+1 >= VoxelizedSection.MIP_LEVELS) {
+            this.mipService.enqueueChildChange(section);
+        }
     }
 
 
-    //TODO: move this to auxilery class  so that it can take into account larger than 4 mip levels
     //Executes an update to the world and automatically updates all the parent mip layers up to level 4 (e.g. where 1 chunk section is 1 block big)
+    // the levels past that are rebuilt from their children by the mip service
     public void insertUpdate(VoxelizedSection section) {//TODO: add a bitset of levels to update and if it should force update
         //The >>1 is cause the world sections size is 32x32x32 vs the 16x16x16 of the voxelized section
-        for (int lvl = 0; lvl < this.maxMipLevels; lvl++) {
+        int levels = Math.min(this.maxMipLevels, VoxelizedSection.MIP_LEVELS);
+        for (int lvl = 0; lvl < levels; lvl++) {
             var worldSection = this.acquire(lvl, section.x >> (lvl + 1), section.y >> (lvl + 1), section.z >> (lvl + 1));
-            int msk = (1<<(lvl+1))-1;
-            int bx = (section.x&msk)<<(4-lvl);
-            int by = (section.y&msk)<<(4-lvl);
-            int bz = (section.z&msk)<<(4-lvl);
-            boolean didChange = false;
-            for (int y = by; y < (16>>lvl)+by; y++) {
-                for (int z = bz; z < (16>>lvl)+bz; z++) {
-                    for (int x = bx; x < (16>>lvl)+bx; x++) {
-                        long newId = section.get(lvl, x-bx, y-by, z-bz);
-                        long oldId = worldSection.set(x, y, z, newId);
-                        didChange |= newId != oldId;
-                    }
-                }
-            }
+            boolean didChange = applyUpdate(worldSection, section, lvl);
 
             //Need to release the section after using it
             if (didChange) {
@@ -141,15 +167,98 @@ public class WorldEngine {
         }
     }
 
+    //Same as insertUpdate for each section, but sections sharing a world section at a level (e.g. a chunk column at
+    // lvl1 and up) are written with a single acquire and the world section is only marked dirty once
+    public void insertUpdates(List<VoxelizedSection> sections) {
+        var pending = new ArrayList<>(sections);
+        int levels = Math.min(this.maxMipLevels, VoxelizedSection.MIP_LEVELS);
+        for (int lvl = 0; lvl < levels && !pending.isEmpty(); lvl++) {
+            int shift = lvl+1;
+            pending.sort(Comparator.comparingInt((VoxelizedSection s)->s.y>>shift).thenComparingInt(s->s.z>>shift).thenComparingInt(s->s.x>>shift));
+            //Only sections that changed something need to update the parent mip level
+            var changed = new ArrayList<VoxelizedSection>(pending.size());
+            for (int start = 0; start < pending.size();) {
+                var first = pending.get(start);
+                int sx = first.x>>shift;
+                int sy = first.y>>shift;
+                int sz = first.z>>shift;
+                int end = start+1;
+                while (end < pending.size() && (pending.get(end).x>>shift) == sx && (pending.get(end).y>>shift) == sy && (pending.get(end).z>>shift) == sz) {
+                    end++;
+                }
+                var worldSection = this.acquire(lvl, sx, sy, sz);
+                boolean didChange = false;
+                for (int i = start; i < end; i++) {
+                    var section = pending.get(i);
+                    if (applyUpdate(worldSection, section, lvl)) {
+                        changed.add(section);
+                        didChange = true;
+                    }
+                }
+                if (didChange) {
+                    this.markDirty(worldSection);
+                }
+                worldSection.release();
+                start = end;
+            }
+            pending = changed;
+        }
+    }
+
+    //Writes the mip level of the section into its part of the world section, returns if anything changed
+    private static boolean applyUpdate(WorldSection worldSection, VoxelizedSection section, int lvl) {
+        if (section.isAir() && worldSection.getUniformId() == Mapper.AIR) {
+            //Already all air, nothing can change here or in the parents
+            return false;
+        }
+        int msk = (1<<(lvl+1))-1;
+        int size = 16>>lvl;
+        int bx = (section.x&msk)<<(4-lvl);
+        int by = (section.y&msk)<<(4-lvl);
+        int bz = (section.z&msk)<<(4-lvl);
+        long[] data = section.getData();
+        boolean didChange = false;
+        for (int y = 0; y < size; y++) {
+            for (int z = 0; z < size; z++) {
+                didChange |= worldSection.setRow(bx, by+y, bz+z, data, section.getIndex(lvl, 0, y, z), size);
+            }
+        }
+        return didChange;
+    }
+
+    public int getMaxMipLevels() {
+        return this.maxMipLevels;
+    }
+
     public int[] getLoadedSectionCacheSizes() {
         return this.sectionTracker.getCacheCounts();
     }
 
+    public int getLoadedSectionCount() {
+        return this.sectionTracker.getLoadedCount();
+    }
+
+    //Null if the section data cache is disabled
+    public SectionDataCache getSectionDataCache() {
+        return this.sectionTracker.getDataCache();
+    }
+
     public void shutdown() {
         try {this.storage.flush();} catch (Exception e) {System.err.println(e);}
         //Shutdown in this order to preserve as much data as possible
         try {this.ingestService.shutdown();} catch (Exception e) {System.err.println(e);}
+        if (this.mipService != null) {
+            try {this.mipService.shutdown();} catch (Exception e) {System.err.println(e);}
+        }
+        try {
+            this.ioExecutor.shutdown();
+            if (!this.ioExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                System.err.println("Section io executor did not terminate in time");
+            }
+        } catch (Exception e) {System.err.println(e);}
         try {this.savingService.shutdown();} catch (Exception e) {System.err.println(e);}
         try {this.storage.close();} catch (Exception e) {System.err.println(e);}
+        //The service threads are gone, give back the raw section blocks they had cached locally
+        WorldSection.getRawDataPool().flushThreadCaches();
     }
 }
@@ -1,18 +1,150 @@
 package me.cortex.voxy.common.world;
 
+import me.cortex.voxy.common.util.SlabAllocator;
+import me.cortex.voxy.common.world.other.Mapper;
+import org.lwjgl.system.MemoryUtil;
 
-import java.util.ArrayDeque;
 import java.util.Arrays;
-import java.util.Deque;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 //Represents a loaded world section at a specific detail level
 // holds a 32x32x32 region of detail
+//The data is held as a palette with bit packed indices, sections that need more than MAX_PALETTE_BITS bits per index
+// are expanded into a raw id array held off heap
 public final class WorldSection {
-    private static final int ARRAY_REUSE_CACHE_SIZE = 256;
-    //TODO: maybe just swap this to a ConcurrentLinkedDeque
-    private static final Deque<long[]> ARRAY_REUSE_CACHE = new ArrayDeque<>(1024);
+    private static final int VOLUME = 32*32*32;
+    //Raw sections are 256kb each, keeping them off heap keeps them out of the gc entirely
+    private static final SlabAllocator RAW_DATA_POOL = new SlabAllocator(VOLUME*8L, 16, 512L<<20);
+    //Index widths are powers of 2 so that an index never straddles two words, 8 bits is 32kb of indices against the
+    // 256kb of a raw section
+    static final int MAX_PALETTE_BITS = 8;
+
+    private static final long[] NO_INDICES = new long[0];
+
+    //Palette ids and packed indices, the id array is always 1<<bits long so any packed index is within it even if a
+    // racing reader sees a stale size
+    //A palette with 0 index bits (a uniform section) is never modified, any differing set replaces it, so uniform
+    // palettes can be shared between any number of sections
+    static final class Palette {
+        final int bits;
+        final long[] ids;
+        final long[] packed;
+        int size;
+
+        Palette(int bits) {
+            this.bits = bits;
+            this.ids = new long[1<<bits];
+            this.packed = bits == 0 ? NO_INDICES : new long[(VOLUME*bits)>>6];
+        }
+
+        static Palette uniform(long id) {
+            var palette = new Palette(0);
+            palette.ids[0] = id;
+            palette.size = 1;
+            return palette;
+        }
+
+        int get(int idx) {
+            if (this.bits == 0) {
+                return 0;
+            }
+            int shift = (idx*this.bits)&63;
+            return (int) ((this.packed[(idx*this.bits)>>6]>>>shift)&((1L<<this.bits)-1));
+        }
+
+        void set(int idx, int value) {
+            int word = (idx*this.bits)>>6;
+            int shift = (idx*this.bits)&63;
+            long mask = ((1L<<this.bits)-1)<<shift;
+            this.packed[word] = (this.packed[word]&~mask)|(((long)value)<<shift);
+        }
+
+        int find(long id) {
+            var ids = this.ids;
+            for (int i = 0; i < this.size; i++) {
+                if (ids[i] == id) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        void pack(short[] indices) {
+            int bits = this.bits;
+            int perWord = 64/bits;
+            var packed = this.packed;
+            int i = 0;
+            for (int w = 0; w < packed.length; w++) {
+                long word = 0;
+                for (int j = 0; j < perWord; j++) {
+                    word |= ((long) indices[i++])<<(j*bits);
+                }
+                packed[w] = word;
+            }
+        }
+
+        void decodeTo(long ptr) {
+            var ids = this.ids;
+            if (this.bits == 0) {
+                for (int i = 0; i < VOLUME; i++) {
+                    MemoryUtil.memPutLong(ptr + i*8L, ids[0]);
+                }
+                return;
+            }
+            int bits = this.bits;
+            int perWord = 64/bits;
+            long mask = (1L<<bits)-1;
+            var packed = this.packed;
+            for (long word : packed) {
+                for (int j = 0; j < perWord; j++) {
+                    MemoryUtil.memPutLong(ptr, ids[(int) (word&mask)]);
+                    ptr += 8;
+                    word >>>= bits;
+                }
+            }
+        }
+
+        void decodeTo(long[] out) {
+            var ids = this.ids;
+            if (this.bits == 0) {
+                Arrays.fill(out, ids[0]);
+                return;
+            }
+            int bits = this.bits;
+            int perWord = 64/bits;
+            long mask = (1L<<bits)-1;
+            var packed = this.packed;
+            int i = 0;
+            for (long word : packed) {
+                for (int j = 0; j < perWord; j++) {
+                    out[i++] = ids[(int) (word&mask)];
+                    word >>>= bits;
+                }
+            }
+        }
+
+        int getByteSize() {
+            return (this.ids.length+this.packed.length)*8;
+        }
+    }
+
+    //Shared palettes of the most common uniform sections, unset and ingested empty sections and never saved sections
+    private static final Palette UNIFORM_AIR = Palette.uniform(Mapper.AIR);
+    private static final Palette UNIFORM_SKY = Palette.uniform(Mapper.withLight(Mapper.AIR, 15));
+
+    static Palette getUniformPalette(long id) {
+        if (id == Mapper.AIR) return UNIFORM_AIR;
+        if (id == UNIFORM_SKY.ids[0]) return UNIFORM_SKY;
+        return Palette.uniform(id);
+    }
+
+    //Smallest supported index width for a palette of the given size
+    static int getPaletteBits(int size) {
+        if (size <= 1) return 0;
+        int bits = 32-Integer.numberOfLeadingZeros(size-1);
+        return bits <= 2 ? bits : (bits <= 4 ? 4 : (bits <= 8 ? 8 : 16));
+    }
 
 
     public final int lvl;
@@ -21,9 +153,16 @@ public final class WorldSection {
     public final int z;
     public final long key;
 
-    long[] data = null;
+    //Exactly one of these is set, writes to the palette are done under the section lock, the raw data is written
+    // without locking as before, readers never lock and only need a consistent view of a single voxel
+    private volatile Palette palette;
+    private long dataPtr;
     private final ActiveSectionTracker tracker;
     public final AtomicBoolean inSaveQueue = new AtomicBoolean();
+    //If the section didnt exist in storage when it was loaded
+    boolean loadedEmpty;
+    //Time of the most recent save request, used by the saving service to coalesce saves
+    public volatile long lastSaveRequestTime;
 
     //When the first bit is set it means its loaded
     private final AtomicInteger atomicState = new AtomicInteger(1);
@@ -35,15 +174,62 @@ public final class WorldSection {
         this.z = z;
         this.key = WorldEngine.getWorldSectionId(lvl, x, y, z);
         this.tracker = tracker;
+        this.fill(0);
+    }
+
+    public static SlabAllocator getRawDataPool() {
+        return RAW_DATA_POOL;
+    }
 
-        if (!ARRAY_REUSE_CACHE.isEmpty()) {
-            synchronized (ARRAY_REUSE_CACHE) {
-                this.data = ARRAY_REUSE_CACHE.poll();
+    private void setRaw(long raw) {
+        this.dataPtr = raw;
+        //Volatile write publishes the raw data to readers that see the palette cleared
+        this.palette = null;
+    }
+
+    //Sets every voxel to the id, only valid while the section is being loaded
+    void fill(long id) {
+        this.loadPalette(getUniformPalette(id));
+    }
+
+    //Sets the section data from a palette and an index per voxel, only valid while the section is being loaded
+    void loadPalette(long[] ids, int size, short[] indices) {
+        if (size == 1) {
+            this.fill(ids[0]);
+            return;
+        }
+        int bits = getPaletteBits(size);
+        if (bits > MAX_PALETTE_BITS) {
+            long raw = RAW_DATA_POOL.alloc();
+            for (int i = 0; i < VOLUME; i++) {
+                MemoryUtil.memPutLong(raw + i*8L, ids[indices[i]]);
             }
+            this.setRaw(raw);
+            return;
         }
-        if (this.data == null) {
-            this.data = new long[32 * 32 * 32];
+        var palette = new Palette(bits);
+        System.arraycopy(ids, 0, palette.ids, 0, size);
+        palette.size = size;
+        if (bits != 0) {
+            palette.pack(indices);
         }
+        this.loadPalette(palette);
+    }
+
+    //Takes ownership of the palette, only valid while the section is being loaded
+    void loadPalette(Palette palette) {
+        this.releaseRaw();
+        this.palette = palette;
+    }
+
+    //The palette if the section isnt raw, only valid once the section is freed, the caller takes ownership of it
+    Palette takePalette() {
+        return this.palette;
+    }
+
+    //Address of the raw data if the section is raw otherwise 0, only valid once the section is freed
+    long getRawDataPtr() {
+        return this.dataPtr;
     }
 
     @Override
@@ -85,16 +271,21 @@ public final class WorldSection {
         if ((witness&1)==0 && witness != 0) {
             throw new IllegalStateException("Section marked as free but has refs");
         }
-        boolean isFreed = witness == 1;
-        if (isFreed) {
-            if (ARRAY_REUSE_CACHE.size() < ARRAY_REUSE_CACHE_SIZE) {
-                synchronized (ARRAY_REUSE_CACHE) {
-                    ARRAY_REUSE_CACHE.add(this.data);
-                }
-            }
-            this.data = null;
+        return witness == 1;
+    }
+
+    //Returns the raw data of a freed section to the pool, done separately from trySetFreed so the tracker can still
+    // read the data of the freed section
+    void freeData() {
+        this.releaseRaw();
+        this.palette = null;
+    }
+
+    private void releaseRaw() {
+        if (this.dataPtr != 0) {
+            RAW_DATA_POOL.free(this.dataPtr);
+            this.dataPtr = 0;
         }
-        return isFreed;
     }
 
     public void assertNotFree() {
@@ -113,21 +304,137 @@ public final class WorldSection {
 
     public long set(int x, int y, int z, long id) {
         int idx = getIndex(x,y,z);
-        long old = this.data[idx];
-        this.data[idx] = id;
+        if (this.palette == null) {
+            return this.setRawVoxel(idx, id);
+        }
+        synchronized (this) {
+            return this.setLocked(idx, id);
+        }
+    }
+
+    //Sets a run of voxels along the x axis from ids, returns if any voxel changed
+    public boolean setRow(int x, int y, int z, long[] ids, int offset, int length) {
+        int idx = getIndex(x, y, z);
+        getIndex(x+length-1, y, z);//Bounds check the end of the row
+        boolean changed = false;
+        if (this.palette == null) {
+            for (int i = 0; i < length; i++) {
+                long id = ids[offset+i];
+                changed |= this.setRawVoxel(idx+i, id) != id;
+            }
+            return changed;
+        }
+        synchronized (this) {
+            for (int i = 0; i < length; i++) {
+                long id = ids[offset+i];
+                changed |= this.setLocked(idx+i, id) != id;
+            }
+        }
+        return changed;
+    }
+
+    //Must hold the section lock
+    private long setLocked(int idx, long id) {
+        var palette = this.palette;
+        if (palette == null) {//Expanded to raw by another thread
+            return this.setRawVoxel(idx, id);
+        }
+        long old = palette.ids[palette.get(idx)];
+        if (old == id) {
+            return old;
+        }
+        int index = palette.find(id);
+        if (index == -1) {
+            if (palette.size == palette.ids.length) {
+                palette = this.growPalette(palette);
+                if (palette == null) {
+                    MemoryUtil.memPutLong(this.dataPtr + idx*8L, id);
+                    return old;
+                }
+            }
+            index = palette.size;
+            palette.ids[index] = id;
+            palette.size = index+1;
+        }
+        palette.set(idx, index);
+        return old;
+    }
+
+    private long setRawVoxel(int idx, long id) {
+        long ptr = this.dataPtr + idx*8L;
+        long old = MemoryUtil.memGetLong(ptr);
+        MemoryUtil.memPutLong(ptr, id);
         return old;
     }
 
+    //Makes room for another entry in a full palette, first dropping unused entries and otherwise going to the next
+    // index width, returns the new palette or null if the section was expanded to a raw array
+    private Palette growPalette(Palette palette) {
+        var used = new boolean[palette.size];
+        int usedCount = 0;
+        for (int i = 0; i < VOLUME && usedCount != palette.size; i++) {
+            int index = palette.get(i);
+            if (!used[index]) {
+                used[index] = true;
+                usedCount++;
+            }
+        }
+        int bits = getPaletteBits(usedCount+1);
+        if (bits > MAX_PALETTE_BITS) {
+            long raw = RAW_DATA_POOL.alloc();
+            palette.decodeTo(raw);
+            this.setRaw(raw);
+            return null;
+        }
+        var grown = new Palette(bits);
+        var remap = new int[palette.size];
+        for (int i = 0; i < palette.size; i++) {
+            if (used[i]) {
+                remap[i] = grown.size;
+                grown.ids[grown.size++] = palette.ids[i];
+            }
+        }
+        if (bits != 0) {
+            for (int i = 0; i < VOLUME; i++) {
+                grown.set(i, remap[palette.get(i)]);
+            }
+        }
+        this.palette = grown;
+        return grown;
+    }
+
     //Generates a copy of the data array, this is to help with atomic operations like rendering
     public long[] copyData() {
-        this.assertNotFree();
-        return Arrays.copyOf(this.data, this.data.length);
+        var copy = new long[VOLUME];
+        this.copyDataTo(copy);
+        return copy;
     }
 
     public void copyDataTo(long[] cache) {
         this.assertNotFree();
-        if (cache.length != this.data.length) throw new IllegalArgumentException();
-        System.arraycopy(this.data, 0, cache, 0, this.data.length);
+        if (cache.length != VOLUME) throw new IllegalArgumentException();
+        var palette = this.palette;
+        if (palette != null) {
+            palette.decodeTo(cache);
+        } else {
+            MemoryUtil.memLongBuffer(this.dataPtr, VOLUME).get(0, cache);
+        }
+    }
+
+    //The id of every voxel if the section is uniform, otherwise Mapper.UNKNOWN_MAPPING
+    //A section only counts as uniform while it has never held a second id, it isnt rescanned after sets
+    public long getUniformId() {
+        var palette = this.palette;
+        if (palette != null && palette.bits == 0) {
+            return palette.ids[0];
+        }
+        return Mapper.UNKNOWN_MAPPING;
+    }
+
+    //Bytes used by the section data, on heap for palettes and off heap for raw sections
+    public int getDataSize() {
+        var palette = this.palette;
+        return palette != null ? palette.getByteSize() : VOLUME*8;
     }
 
     public boolean tryAcquire() {
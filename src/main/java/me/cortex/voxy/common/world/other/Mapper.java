@@ -28,6 +28,8 @@ import java.util.function.Consumer;
 public class Mapper {
     private static final int BLOCK_STATE_TYPE = 1;
     private static final int BIOME_TYPE = 2;
+    //Reserved for storage layer metadata (e.g. compression dictionaries), these entries are ignored by the mapper
+    public static final int STORAGE_METADATA_TYPE = 3;
 
     private final StorageBackend storage;
     public static final long UNKNOWN_MAPPING = -1;
@@ -104,6 +106,8 @@ public class Mapper {
                 if (this.biome2biomeEntry.put(bentry.biome, bentry) != null) {
                     throw new IllegalStateException("Multiple mappings for biome entry");
                 }
+            } else if (entryType == STORAGE_METADATA_TYPE) {
+                continue;
             } else {
                 throw new IllegalStateException("Unknown entryType");
             }
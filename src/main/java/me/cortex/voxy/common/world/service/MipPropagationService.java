@@ -0,0 +1,211 @@
+package me.cortex.voxy.common.world.service;
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import me.cortex.voxy.common.world.WorldEngine;
+import me.cortex.voxy.common.world.WorldSection;
+import me.cortex.voxy.common.world.other.Mapper;
+import me.cortex.voxy.common.world.other.Mipper;
+import net.minecraft.client.MinecraftClient;
+import net.minecraft.text.Text;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//Builds the lod levels past the ones carried by a VoxelizedSection, each section of such a level is downsampled from
+// its 8 children of the level below
+//Changed children set their bit in the dirty child mask of their parent, parents are only rebuilt after the coalescing
+// window so a burst of changes to the children of a parent only rebuilds it once, levels are processed lowest first so
+// a parent always sees the rebuilt data of its children
+public class MipPropagationService {
+    private volatile boolean running = true;
+    //When set, pending parents are rebuilt as soon as possible, ignoring the coalescing window
+    private volatile boolean draining = false;
+    private final Thread worker;
+
+    private final WorldEngine world;
+    private final int minLevel;
+    private final int maxLevels;
+    private final long coalesceWindowMs;
+
+    //Dirty child octant mask of each parent section pending a rebuild, indexed by the parent level, guarded by the lock
+    private final Object lock = new Object();
+    private final Long2IntOpenHashMap[] dirtyChildren;
+    private final AtomicInteger pendingCount = new AtomicInteger();
+
+    //Worker scratch
+    private final long[] childData = new long[32*32*32];
+    private final long[] row = new long[16];
+
+    //Levels from minLevel up to but excluding maxLevels are built by this service
+    public MipPropagationService(WorldEngine world, int minLevel, int maxLevels, long coalesceWindowMs) {
+        this.world = world;
+        this.minLevel = minLevel;
+        this.maxLevels = maxLevels;
+        this.coalesceWindowMs = coalesceWindowMs;
+        this.dirtyChildren = new Long2IntOpenHashMap[maxLevels];
+        for (int i = 0; i < maxLevels; i++) {
+            this.dirtyChildren[i] = new Long2IntOpenHashMap();
+        }
+        this.worker = new Thread(this::propagationWorker);
+        this.worker.setDaemon(false);
+        this.worker.setName("Mip propagation service");
+        this.worker.start();
+    }
+
+    //Marks the parent of the section as needing to be rebuilt from it
+    public void enqueueChildChange(WorldSection child) {
+        int lvl = child.lvl+1;
+        if (lvl < this.minLevel || lvl >= this.maxLevels) {
+            return;
+        }
+        long parent = WorldEngine.getWorldSectionId(lvl, child.x>>1, child.y>>1, child.z>>1);
+        int bit = 1<<((child.x&1)|((child.y&1)<<1)|((child.z&1)<<2));
+        synchronized (this.lock) {
+            var dirty = this.dirtyChildren[lvl];
+            int mask = dirty.get(parent);
+            if (mask == 0) {
+                this.pendingCount.incrementAndGet();
+            }
+            dirty.put(parent, mask|bit);
+            this.lock.notify();
+        }
+    }
+
+    private void propagationWorker() {
+        while (this.running) {
+            try {
+                synchronized (this.lock) {
+                    while (this.running && this.pendingCount.get() == 0) {
+                        this.lock.wait();
+                    }
+                }
+                //Let changes to the children accumulate
+                long end = System.currentTimeMillis() + this.coalesceWindowMs;
+                while (this.running && !this.draining && System.currentTimeMillis() < end) {
+                    Thread.sleep(Math.min(100, Math.max(1, end - System.currentTimeMillis())));
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.propagateAll();
+        }
+    }
+
+    private void propagateAll() {
+        for (int lvl = this.minLevel; lvl < this.maxLevels; lvl++) {
+            Long2IntOpenHashMap dirty;
+            synchronized (this.lock) {
+                dirty = this.dirtyChildren[lvl];
+                if (dirty.isEmpty()) {
+                    continue;
+                }
+                this.dirtyChildren[lvl] = new Long2IntOpenHashMap();
+            }
+            for (var entry : dirty.long2IntEntrySet()) {
+                try {
+                    this.propagate(entry.getLongKey(), entry.getIntValue());
+                } catch (Exception e) {
+                    System.err.println(e);
+                    MinecraftClient.getInstance().executeSync(()->MinecraftClient.getInstance().player.sendMessage(Text.literal("Voxy mip propagation had an exception while executing please check logs and report error")));
+                }
+                this.pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    //Rebuilds the octants of the parent from its dirty children, marking the parent dirty (and so enqueuing its own
+    // parent) only if it changed
+    private void propagate(long parentKey, int childMask) {
+        int lvl = WorldEngine.getLevel(parentKey);
+        int x = WorldEngine.getX(parentKey);
+        int y = WorldEngine.getY(parentKey);
+        int z = WorldEngine.getZ(parentKey);
+        var parent = this.world.acquire(lvl, x, y, z);
+        try {
+            boolean changed = false;
+            for (int octant = 0; octant < 8; octant++) {
+                if ((childMask&(1<<octant)) == 0) {
+                    continue;
+                }
+                int ox = octant&1;
+                int oy = (octant>>1)&1;
+                int oz = (octant>>2)&1;
+                var child = this.world.acquire(lvl-1, (x<<1)|ox, (y<<1)|oy, (z<<1)|oz);
+                try {
+                    changed |= this.downsample(child, parent, ox<<4, oy<<4, oz<<4);
+                } finally {
+                    child.release();
+                }
+            }
+            if (changed) {
+                this.world.markDirty(parent);
+            }
+        } finally {
+            parent.release();
+        }
+    }
+
+    private static int idx(int x, int y, int z) {
+        return (y<<10)|(z<<5)|x;
+    }
+
+    //Writes the 2x2x2 mip of the child into the 16x16x16 octant of the parent at the offset, returns if anything changed
+    private boolean downsample(WorldSection child, WorldSection parent, int ox, int oy, int oz) {
+        var row = this.row;
+        boolean changed = false;
+        long uniformId = child.getUniformId();
+        if (uniformId != Mapper.UNKNOWN_MAPPING) {
+            //The mip of 8 identical voxels is that voxel
+            Arrays.fill(row, uniformId);
+            for (int y = 0; y < 16; y++) {
+                for (int z = 0; z < 16; z++) {
+                    changed |= parent.setRow(ox, oy+y, oz+z, row, 0, 16);
+                }
+            }
+            return changed;
+        }
+        var data = this.childData;
+        child.copyDataTo(data);
+        var mapper = this.world.getMapper();
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                for (int x = 0; x < 16; x++) {
+                    int X = x<<1, Y = y<<1, Z = z<<1;
+                    row[x] = Mipper.mip(
+                            data[idx(X, Y, Z)],   data[idx(X+1, Y, Z)],   data[idx(X, Y, Z+1)],   data[idx(X+1, Y, Z+1)],
+                            data[idx(X, Y+1, Z)], data[idx(X+1, Y+1, Z)], data[idx(X, Y+1, Z+1)], data[idx(X+1, Y+1, Z+1)],
+                            mapper);
+                }
+                changed |= parent.setRow(ox, oy+y, oz+z, row, 0, 16);
+            }
+        }
+        return changed;
+    }
+
+    public int getTaskCount() {
+        return this.pendingCount.get();
+    }
+
+    public void shutdown() {
+        if (!this.worker.isAlive()) {
+            System.err.println("Mip propagation worker already dead on shutdown! this is very very bad, check log for errors from this thread");
+            return;
+        }
+        //Rebuild everything pending now instead of waiting for the coalescing window
+        this.draining = true;
+        int i = 0;
+        while (this.pendingCount.get() != 0 && this.worker.isAlive()) {
+            try {Thread.sleep(100);} catch (InterruptedException e) {break;}
+            if (i++%50 == 0) {
+                System.out.println("Mip propagation shutdown has " + this.pendingCount.get() + " sections remaining");
+            }
+        }
+        this.running = false;
+        synchronized (this.lock) {
+            this.lock.notifyAll();
+        }
+        try {
+            this.worker.join();
+        } catch (InterruptedException e) {throw new RuntimeException(e);}
+    }
+}
@@ -8,23 +8,73 @@ import net.minecraft.client.MinecraftClient;
 import net.minecraft.text.Text;
 import org.lwjgl.system.MemoryUtil;
 
-import java.util.concurrent.ConcurrentLinkedDeque;
-import java.util.concurrent.Semaphore;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
-//TODO: add an option for having synced saving, that is when call enqueueSave, that will instead, instantly
-// save to the db, this can be useful for just reducing the amount of thread pools in total
-// might have some issues with threading if the same section is saved from multiple threads?
+//Saves are deferred and coalesced, a section is only written once it has not been updated for the coalescing window,
+// or once it has been dirty for the max dirty age, so bursts of updates to the same section only get written once
+//If there are no workers the service runs in synchronous mode, where the threads requesting saves write any saves that
+// are due, while no saves are requested the due saves are written by the periodic tick of the ingest workers
 public class SectionSavingService {
+    //Max number of sections a worker will write to the storage in a single batch
+    private static final int MAX_SAVE_BATCH_SIZE = 64;
+
     private volatile boolean running = true;
+    //When set, pending saves are written as soon as possible, ignoring the coalescing window
+    private volatile boolean draining = false;
     private final Thread[] workers;
 
-    private final ConcurrentLinkedDeque<WorldSection> saveQueue = new ConcurrentLinkedDeque<>();
-    private final Semaphore saveCounter = new Semaphore(0);
+    private final DelayQueue<PendingSave> saveQueue = new DelayQueue<>();
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final long coalesceWindow;
+    private final long maxDirtyAge;
 
     private final WorldEngine world;
 
+    private final class PendingSave implements Delayed {
+        private final WorldSection section;
+        private final long firstDirtyTime;
+        private final long dueTime;
+
+        private PendingSave(WorldSection section, long firstDirtyTime, long dueTime) {
+            this.section = section;
+            this.firstDirtyTime = firstDirtyTime;
+            this.dueTime = dueTime;
+        }
+
+        //When the section should be saved with respect to its latest update
+        private long computeDueTime() {
+            return Math.min(this.firstDirtyTime + SectionSavingService.this.maxDirtyAge,
+                    this.section.lastSaveRequestTime + SectionSavingService.this.coalesceWindow);
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            if (SectionSavingService.this.draining) {
+                return 0;
+            }
+            return unit.convert(this.dueTime - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(this.dueTime, ((PendingSave)o).dueTime);
+        }
+    }
 
     public SectionSavingService(WorldEngine worldEngine, int workers) {
+        this(worldEngine, workers, 0, 0);
+    }
+
+    public SectionSavingService(WorldEngine worldEngine, int workers, long coalesceWindowMs, long maxDirtyAgeMs) {
+        this.world = worldEngine;
+        this.coalesceWindow = TimeUnit.MILLISECONDS.toNanos(coalesceWindowMs);
+        this.maxDirtyAge = TimeUnit.MILLISECONDS.toNanos(Math.max(coalesceWindowMs, maxDirtyAgeMs));
         this.workers = new Thread[workers];
         for (int i = 0; i < workers; i++) {
             var worker = new Thread(this::saveWorker);
@@ -33,66 +83,154 @@ public class SectionSavingService {
             worker.start();
             this.workers[i] = worker;
         }
-        this.world = worldEngine;
     }
 
     private void saveWorker() {
-        while (running) {
-            this.saveCounter.acquireUninterruptibly();
-            if (!this.running) break;
-            var section = this.saveQueue.pop();
-            section.assertNotFree();
+        var batch = new ArrayList<WorldSection>(MAX_SAVE_BATCH_SIZE);
+        while (this.running) {
+            PendingSave entry;
             try {
-                section.inSaveQueue.set(false);
-                var saveData = SaveLoadSystem.serialize(section);
-                this.world.storage.setSectionData(section.key, saveData);
-                MemoryUtil.memFree(saveData);
-            } catch (Exception e) {
-                System.err.println(e);
-                MinecraftClient.getInstance().executeSync(()->MinecraftClient.getInstance().player.sendMessage(Text.literal("Voxy saver had an exception while executing please check logs and report error")));
+                //Timed so that the worker notices shutdown and draining
+                entry = this.saveQueue.poll(100, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (entry == null) continue;
+            this.collectBatch(entry, batch);
+            this.saveBatch(batch);
+        }
+    }
+
+    //Writes a single batch of due saves on the calling thread, returns false if there was nothing due
+    private boolean saveDue() {
+        var entry = this.saveQueue.poll();
+        if (entry == null) {
+            return false;
+        }
+        var batch = new ArrayList<WorldSection>();
+        this.collectBatch(entry, batch);
+        this.saveBatch(batch);
+        return true;
+    }
+
+    //Collects due saves into the batch, entries that got updated since they were queued are requeued at their new due time
+    private void collectBatch(PendingSave entry, List<WorldSection> batch) {
+        while (entry != null) {
+            long due = entry.computeDueTime();
+            if ((!this.draining) && due - System.nanoTime() > 0) {
+                this.saveQueue.add(new PendingSave(entry.section, entry.firstDirtyTime, due));
+            } else {
+                batch.add(entry.section);
+                if (batch.size() >= MAX_SAVE_BATCH_SIZE) {
+                    break;
+                }
+            }
+            entry = this.saveQueue.poll();
+        }
+    }
+
+    private void saveBatch(List<WorldSection> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            this.writeBatch(batch);
+        } catch (Exception e) {
+            System.err.println(e);
+            //Retry the sections one at a time so only the ones that actually fail are lost
+            for (var section : batch) {
+                try {
+                    this.writeBatch(List.of(section));
+                } catch (Exception e2) {
+                    System.err.println(e2);
+                    MinecraftClient.getInstance().executeSync(()->MinecraftClient.getInstance().player.sendMessage(Text.literal("Voxy saver had an exception while executing please check logs and report error")));
+                }
             }
+        }
+        this.pendingCount.addAndGet(-batch.size());
+        for (var section : batch) {
             section.release();
         }
+        batch.clear();
+    }
+
+    private void writeBatch(List<WorldSection> batch) {
+        long[] keys = new long[batch.size()];
+        ByteBuffer[] datas = new ByteBuffer[batch.size()];
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                var section = batch.get(i);
+                section.assertNotFree();
+                section.inSaveQueue.set(false);
+                keys[i] = section.key;
+                datas[i] = SaveLoadSystem.serialize(section);
+            }
+            this.world.storage.setSectionDataBatch(keys, datas);
+        } finally {
+            for (var data : datas) {
+                if (data != null) {
+                    MemoryUtil.memFree(data);
+                }
+            }
+        }
+    }
+
+    //Writes the saves that are due in synchronous mode, called periodically so they dont wait on further save requests
+    public void tick() {
+        if (this.workers.length == 0) {
+            while (this.saveDue());
+        }
     }
 
     public void enqueueSave(WorldSection section) {
+        long now = System.nanoTime();
+        section.lastSaveRequestTime = now;
         //If its not enqueued for saving then enqueue it
         if (!section.inSaveQueue.getAndSet(true)) {
             //Acquire the section for use
             section.acquire();
-            this.saveQueue.add(section);
-            this.saveCounter.release();
+            this.pendingCount.incrementAndGet();
+            this.saveQueue.add(new PendingSave(section, now, now + this.coalesceWindow));
+        }
+        if (this.workers.length == 0) {
+            this.saveDue();
         }
     }
 
     public void shutdown() {
-        boolean anyAlive = false;
-        boolean allAlive = true;
-        for (var worker : this.workers) {
-            anyAlive |= worker.isAlive();
-            allAlive &= worker.isAlive();
-        }
+        if (this.workers.length != 0) {
+            boolean anyAlive = false;
+            boolean allAlive = true;
+            for (var worker : this.workers) {
+                anyAlive |= worker.isAlive();
+                allAlive &= worker.isAlive();
+            }
 
-        if (!anyAlive) {
-            System.err.println("Section saving workers already dead on shutdown! this is very very bad, check log for errors from this thread");
-            return;
-        }
-        if (!allAlive) {
-            System.err.println("Some section saving works have died, please check log and report errors.");
+            if (!anyAlive) {
+                System.err.println("Section saving workers already dead on shutdown! this is very very bad, check log for errors from this thread");
+                return;
+            }
+            if (!allAlive) {
+                System.err.println("Some section saving works have died, please check log and report errors.");
+            }
         }
 
+        //Write everything that is pending now instead of waiting for the coalescing window
+        this.draining = true;
+        if (this.workers.length == 0) {
+            while (this.saveDue());
+        }
 
         int i = 0;
         //Wait for all the saving to finish
-        while (this.saveCounter.availablePermits() != 0) {
+        while (this.pendingCount.get() != 0) {
             try {Thread.sleep(500);} catch (InterruptedException e) {break;}
             if (i++%10 == 0) {
-                System.out.println("Section saving shutdown has " + this.saveCounter.availablePermits() + " tasks remaining");
+                System.out.println("Section saving shutdown has " + this.pendingCount.get() + " tasks remaining");
             }
         }
         //Shutdown
         this.running = false;
-        this.saveCounter.release(1000);
         //Wait for threads to join
         try {
             for (var worker : this.workers) {
@@ -102,6 +240,6 @@ public class SectionSavingService {
     }
 
     public int getTaskCount() {
-        return this.saveCounter.availablePermits();
+        return this.pendingCount.get();
     }
 }
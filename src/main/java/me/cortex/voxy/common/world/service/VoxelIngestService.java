@@ -12,12 +12,17 @@ import net.minecraft.world.chunk.ChunkNibbleArray;
 import net.minecraft.world.chunk.WorldChunk;
 import net.minecraft.world.chunk.light.LightStorage;
 
+import java.util.ArrayList;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 public class VoxelIngestService {
+    //How often idle workers tick the saving service
+    private static final long SAVE_TICK_MS = 250;
+
     private volatile boolean running = true;
     private final Thread[] workers;
 
@@ -42,16 +47,26 @@ public class VoxelIngestService {
 
     private void ingestWorker() {
         while (this.running) {
-            this.ingestCounter.acquireUninterruptibly();
+            try {
+                //Timed so that due synchronous saves get written while nothing is being ingested
+                if (!this.ingestCounter.tryAcquire(SAVE_TICK_MS, TimeUnit.MILLISECONDS)) {
+                    this.world.savingService.tick();
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
             if (!this.running) break;
             try {
                 var chunk = this.ingestQueue.pop();
+                //The sections of a chunk share their parent world sections so are inserted together
+                var sections = new ArrayList<VoxelizedSection>(chunk.getSectionArray().length);
                 int i = chunk.getBottomSectionCoord() - 1;
                 for (var section : chunk.getSectionArray()) {
                     i++;
                     var lighting = this.captureLightMap.remove(ChunkSectionPos.from(chunk.getPos(), i).asLong());
                     if (section.isEmpty()) {
-                        this.world.insertUpdate(VoxelizedSection.createEmpty(chunk.getPos().x, i, chunk.getPos().z));
+                        sections.add(VoxelizedSection.createAir(chunk.getPos().x, i, chunk.getPos().z));
                     } else {
                         VoxelizedSection csec = WorldConversionFactory.convert(
                                 this.world.getMapper(),
@@ -76,9 +91,10 @@ public class VoxelIngestService {
                                 chunk.getPos().z
                         );
                         WorldConversionFactory.mipSection(csec, this.world.getMapper());
-                        this.world.insertUpdate(csec);
+                        sections.add(csec);
                     }
                 }
+                this.world.insertUpdates(sections);
             } catch (Exception e) {
                 System.err.println(e);
                 MinecraftClient.getInstance().executeSync(()->MinecraftClient.getInstance().player.sendMessage(Text.literal("Voxy ingester had an exception while executing please check logs and report error")));